@@ -0,0 +1,168 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.markup.IMarkupResourceStreamProvider;
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.form.Form;
+import org.apache.wicket.markup.repeater.RepeatingView;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.protocol.http.WebApplication;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.StringResourceStream;
+
+/**
+ * Choices, provider, application and page shared by the benchmarks
+ */
+public final class BenchmarkChoices {
+
+    private BenchmarkChoices() {}
+
+    /**
+     * Creates choices spread over ten groups, every tenth choice is ungrouped
+     *
+     * @param count number of choices
+     * @return choices
+     */
+    public static List<Choice> create(int count) {
+        List<Choice> choices = new ArrayList<Choice>(count);
+        for (int i = 0; i < count; i++) {
+            String group = i % 10 == 9 ? null : "Group " + (i % 10);
+            choices.add(new Choice(i, "Choice number " + i + " with \"quotes\" and unicode éè", group));
+        }
+        return choices;
+    }
+
+    /**
+     * Choice with an id, a display text and a group. Serializable so pages can be stored, pages are not read back
+     * during the benchmarks.
+     */
+    public static class Choice extends GroupedValue implements Serializable {
+        private final int id;
+        private final String text;
+
+        public Choice(int id, String text, String group) {
+            super(group);
+            this.id = id;
+            this.text = text;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * Returns pages of a fixed number of choices regardless of the search term
+     */
+    public static class Provider extends TextChoiceProvider<Choice> {
+        private final List<Choice> choices;
+        private final int pageSize;
+        private final Map<String, Choice> byId = new HashMap<String, Choice>();
+
+        public Provider(List<Choice> choices, int pageSize) {
+            this.choices = choices;
+            this.pageSize = pageSize;
+            for (Choice choice : choices) {
+                byId.put(String.valueOf(choice.getId()), choice);
+            }
+        }
+
+        @Override
+        protected String getDisplayText(Choice choice) {
+            return choice.getText();
+        }
+
+        @Override
+        protected Object getId(Choice choice) {
+            return choice.getId();
+        }
+
+        @Override
+        public void query(String term, int page, Response<Choice> response) {
+            int from = Math.min(page * pageSize, choices.size());
+            int to = Math.min(from + pageSize, choices.size());
+            response.addAll(choices.subList(from, to));
+            response.setHasMore(to < choices.size());
+        }
+
+        @Override
+        public Collection<Choice> toChoices(Collection<String> ids) {
+            List<Choice> result = new ArrayList<Choice>(ids.size());
+            for (String id : ids) {
+                result.add(byId.get(id));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Application rendering {@link BenchmarkPage}
+     */
+    public static class BenchmarkApplication extends WebApplication {
+        @Override
+        public Class<BenchmarkPage> getHomePage() {
+            return BenchmarkPage.class;
+        }
+    }
+
+    /**
+     * Page with a form of single-select components, each with a selected choice
+     */
+    public static class BenchmarkPage extends WebPage implements IMarkupResourceStreamProvider {
+        private final List<Select2Choice<Choice>> selects = new ArrayList<Select2Choice<Choice>>();
+
+        public BenchmarkPage() {
+            this(1, new Provider(create(100), 10));
+        }
+
+        public BenchmarkPage(int components, Provider provider) {
+            Form<Void> form = new Form<Void>("form");
+            add(form);
+            RepeatingView rows = new RepeatingView("rows");
+            form.add(rows);
+            for (int i = 0; i < components; i++) {
+                WebMarkupContainer row = new WebMarkupContainer(rows.newChildId());
+                rows.add(row);
+                Choice selected = provider.choices.get(i % provider.choices.size());
+                Select2Choice<Choice> select = new Select2Choice<Choice>("select", Model.of(selected), provider);
+                select.getSettings().setMinimumInputLength(1);
+                row.add(select);
+                selects.add(select);
+            }
+        }
+
+        public Select2Choice<Choice> getSelect(int index) {
+            return selects.get(index);
+        }
+
+        @Override
+        public IResourceStream getMarkupResourceStream(MarkupContainer container, Class<?> containerClass) {
+            return new StringResourceStream("<html><body><form wicket:id=\"form\"><div wicket:id=\"rows\">"
+                    + "<input type=\"hidden\" wicket:id=\"select\"/></div></form></body></html>");
+        }
+    }
+}
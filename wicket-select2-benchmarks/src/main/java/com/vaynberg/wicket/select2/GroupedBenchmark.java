@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wicket.util.tester.WicketTester;
+import org.json.JSONWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaynberg.wicket.select2.BenchmarkChoices.BenchmarkApplication;
+import com.vaynberg.wicket.select2.BenchmarkChoices.Choice;
+import com.vaynberg.wicket.select2.BenchmarkChoices.Provider;
+
+/**
+ * Grouping and writing the results of {@link Select2GroupedMultiChoice}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupedBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int results;
+
+    private WicketTester tester;
+    private Select2GroupedMultiChoice<Choice> select;
+    private List<Choice> choices;
+
+    @Setup
+    public void setUp() {
+        // components need an application attached to the thread
+        tester = new WicketTester(new BenchmarkApplication());
+        choices = BenchmarkChoices.create(results);
+        select = new Select2GroupedMultiChoice<Choice>("select", null, new Provider(choices, results));
+    }
+
+    @TearDown
+    public void tearDown() {
+        tester.destroy();
+    }
+
+    @Benchmark
+    public Map<String, List<Choice>> groupItems() {
+        return select.groupItems(choices);
+    }
+
+    @Benchmark
+    public String addValues() throws Exception {
+        StringWriter out = new StringWriter(results * 64);
+        JSONWriter json = new JSONWriter(out);
+        json.array();
+        select.addValues(json, choices);
+        json.endArray();
+        return out.toString();
+    }
+}
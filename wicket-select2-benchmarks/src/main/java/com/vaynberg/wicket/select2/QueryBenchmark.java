@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wicket.util.tester.WicketTester;
+import org.json.JSONWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaynberg.wicket.select2.BenchmarkChoices.BenchmarkApplication;
+import com.vaynberg.wicket.select2.BenchmarkChoices.BenchmarkPage;
+import com.vaynberg.wicket.select2.BenchmarkChoices.Choice;
+import com.vaynberg.wicket.select2.BenchmarkChoices.Provider;
+import com.vaynberg.wicket.select2.json.Utf8JsonWriter;
+
+/**
+ * Answering a query: writing the results of a {@link TextChoiceProvider} as UTF-8 Json with the {@link JSONWriter}
+ * and with the {@link Utf8JsonWriter}, and the whole {@link AbstractSelect2Choice#onRequest()} request, for several
+ * result sizes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int results;
+
+    private WicketTester tester;
+    private Provider provider;
+    private QueryHandler<Choice> handler;
+    private Response<Choice> response;
+    private Select2Choice<Choice> select;
+
+    @Setup
+    public void setUp() {
+        tester = new WicketTester(new BenchmarkApplication());
+        provider = new Provider(BenchmarkChoices.create(results * 2), results);
+        handler = new QueryHandler<Choice>(provider);
+        response = new Response<Choice>();
+        provider.query("choice", 0, response);
+
+        BenchmarkPage page = tester.startPage(new BenchmarkPage(1, provider));
+        select = page.getSelect(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        tester.destroy();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(results * 64);
+        OutputStreamWriter out = new OutputStreamWriter(bytes, "UTF-8");
+        write(new JSONWriter(out));
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] serializeUtf8() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(results * 64);
+        Utf8JsonWriter json = new Utf8JsonWriter(bytes);
+        write(json);
+        json.flush();
+        return bytes.toByteArray();
+    }
+
+    private void write(JSONWriter json) throws Exception {
+        json.object().key("results").array();
+        handler.addValues(json, response);
+        json.endArray().key("more").value(response.getHasMore()).endObject();
+    }
+
+    @Benchmark
+    public String request() {
+        tester.getRequest().setParameter("term", "choice");
+        tester.getRequest().setParameter("page", "1");
+        tester.executeListener(select);
+        return tester.getLastResponseAsString();
+    }
+}
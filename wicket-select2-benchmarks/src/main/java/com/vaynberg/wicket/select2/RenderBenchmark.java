@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wicket.util.tester.WicketTester;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaynberg.wicket.select2.BenchmarkChoices.BenchmarkApplication;
+import com.vaynberg.wicket.select2.BenchmarkChoices.BenchmarkPage;
+import com.vaynberg.wicket.select2.BenchmarkChoices.Provider;
+
+/**
+ * Rendering a page of {@link Select2Choice} components through {@link WicketTester}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({"1", "50", "300"})
+    public int components;
+
+    @Param({"false", "true"})
+    public boolean batched;
+
+    private WicketTester tester;
+    private Provider provider;
+
+    @Setup
+    public void setUp() {
+        tester = new WicketTester(new BenchmarkApplication());
+        ApplicationSettings.get().setBatchedInitialization(batched);
+        provider = new Provider(BenchmarkChoices.create(100), 10);
+    }
+
+    @TearDown
+    public void tearDown() {
+        tester.destroy();
+    }
+
+    @Benchmark
+    public String render() {
+        tester.startPage(new BenchmarkPage(components, provider));
+        return tester.getLastResponseAsString();
+    }
+}
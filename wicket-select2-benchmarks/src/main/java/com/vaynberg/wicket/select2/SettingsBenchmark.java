@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converting {@link Settings} to Json, with the cached Json, after a change and as a difference to a profile
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SettingsBenchmark {
+
+    private Settings settings;
+    private Settings profile;
+    private int width;
+
+    @Setup
+    public void setUp() {
+        settings = createSettings();
+        settings.setMinimumInputLength(2);
+        settings.setPlaceholder("Select a country");
+        profile = createSettings();
+    }
+
+    /**
+     * @return settings like those of a component after initialization
+     */
+    private static Settings createSettings() {
+        Settings settings = new Settings();
+        AjaxSettings ajax = settings.getAjax(true);
+        ajax.setUrl("./page?1-1.IBehaviorListener.0-form-rows-1-select");
+        ajax.setData("function(term, page, context) { return { term: term, page:page, cursor:context, "
+                + "'wicket-ajax':true, 'wicket-ajax-baseurl':[window.location.protocol, '//', window.location.host, "
+                + "window.location.pathname].join('')}; }");
+        ajax.setResults("function(data, page) { return data; }");
+        settings.setFormatNoMatches("function() { return 'No matches found';}");
+        settings.setFormatInputTooShort("function(input, min) { return min - input.length == 1 ? "
+                + "'Please enter 1 more character' : 'Please enter {number} more characters'"
+                + ".replace('{number}', min - input.length); }");
+        settings.setFormatSelectionTooBig("function(limit) { return limit == 1 ? 'You can only select 1 item' : "
+                + "'You can only select {limit} items'.replace('{limit}', limit); }");
+        settings.setFormatLoadMore("function() { return 'Loading more results...';}");
+        settings.setFormatSearching("function() { return 'Searching...';}");
+        return settings;
+    }
+
+    @Benchmark
+    public CharSequence toJson() {
+        return settings.toJson();
+    }
+
+    @Benchmark
+    public CharSequence toJsonAfterChange() {
+        settings.setWidth((width++ & 1) == 0 ? "100%" : "50%");
+        return settings.toJson();
+    }
+
+    @Benchmark
+    public CharSequence toJsonWithProfile() {
+        return settings.toJson(profile);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Splitting the value submitted by {@link Select2MultiChoice} into ids, for plain and for Json ids
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SplitInputBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int ids;
+
+    @Param({"csv", "json"})
+    public String format;
+
+    private String input;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < ids; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            if ("json".equals(format)) {
+                builder.append("{\"email\":{\"address\":\"user").append(i)
+                        .append("@test.com\"},\"name\":\"User, \\\"").append(i).append("\\\" {x}\"}");
+            } else {
+                builder.append(100000 + i);
+            }
+        }
+        input = builder.toString();
+    }
+
+    @Benchmark
+    public List<String> splitInput() {
+        return Select2MultiChoice.splitInput(input);
+    }
+}
@@ -12,14 +12,13 @@
  */
 package com.vaynberg.wicket.select2;
 
-import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.util.Collection;
 
+import org.apache.wicket.Component;
 import org.apache.wicket.IRequestListener;
 import org.apache.wicket.model.IModel;
-import org.apache.wicket.request.IRequestParameters;
-import org.apache.wicket.request.Request;
 import org.apache.wicket.request.http.WebResponse;
+import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.json.JSONException;
 import org.json.JSONWriter;
 
@@ -33,6 +32,12 @@ import org.json.JSONWriter;
 abstract class AbstractSelect2Choice<T, M> extends Select2ChoiceBaseComponent<M> implements IRequestListener {
 
     private ChoiceProvider<T> provider;
+    private String sharedProviderName;
+
+    /**
+     * Whether the raw input has been converted during the current request
+     */
+    private transient boolean inputConverted;
 
     /**
      * Constructor
@@ -85,10 +90,49 @@ abstract class AbstractSelect2Choice<T, M> extends Select2ChoiceBaseComponent<M>
         this.provider = provider;
     }
 
+    /**
+     * Makes this component use the provider registered under {@code name} with
+     * {@link ApplicationSettings#registerProvider(String, ChoiceProvider)} instead of its own provider.
+     * <p>
+     * Queries are then answered by the application-wide {@link Select2QueryResource} rather than by this component,
+     * so they do not need to retrieve, lock or deserialize the page. The component also no longer prevents the page
+     * from being stateless.
+     *
+     * @param name name of the shared provider, or {@code null} to use the component's own provider
+     */
+    public void setSharedProvider(String name) {
+        this.sharedProviderName = name;
+    }
+
+    /**
+     * @return name of the shared provider used by this component, or {@code null} if it uses its own provider
+     */
+    public final String getSharedProvider() {
+        return sharedProviderName;
+    }
+
+    /**
+     * @return choice provider, or {@code null} if none is set or the shared provider is not registered
+     */
+    final ChoiceProvider<T> findProvider() {
+        if (sharedProviderName != null) {
+            return ApplicationSettings.get().getProvider(sharedProviderName);
+        }
+        return provider;
+    }
+
     /**
      * @return choice provider
      */
     public final ChoiceProvider<T> getProvider() {
+        if (sharedProviderName != null) {
+            ChoiceProvider<T> shared = ApplicationSettings.get().getProvider(sharedProviderName);
+            if (shared == null) {
+                throw new IllegalStateException("Select2 choice component: " + getId()
+                        + " uses shared ChoiceProvider: " + sharedProviderName + " which is not registered");
+            }
+            return shared;
+        }
         if (provider == null) {
             throw new IllegalStateException("Select2 choice component: " + getId()
                     + " does not have a ChoiceProvider set");
@@ -100,7 +144,19 @@ abstract class AbstractSelect2Choice<T, M> extends Select2ChoiceBaseComponent<M>
     protected void onConfigure() {
         super.onConfigure();
 
-        getSettings().getAjax().setUrl(urlForListener(null));
+        if (sharedProviderName != null) {
+            PageParameters parameters = new PageParameters().set(Select2QueryResource.PROVIDER_PARAMETER,
+                    sharedProviderName);
+            if (getGroupLimit() >= 0) {
+                parameters.set(Select2QueryResource.GROUP_LIMIT_PARAMETER, getGroupLimit());
+            }
+            if (QueryCancellation.isEnabled(getProvider())) {
+                parameters.set(Select2QueryResource.QUERY_KEY_PARAMETER, getPage().getPageId() + "-" + getMarkupId());
+            }
+            getSettings().getAjax().setUrl(urlFor(Select2QueryResource.getReference(), parameters));
+        } else {
+            getSettings().getAjax().setUrl(urlForListener(null));
+        }
     }
 
 
@@ -109,41 +165,85 @@ abstract class AbstractSelect2Choice<T, M> extends Select2ChoiceBaseComponent<M>
 
         // this is the callback that retrieves matching choices used to populate the dropdown
 
-        Request request = getRequestCycle().getRequest();
-        IRequestParameters params = request.getRequestParameters();
-
-        // retrieve choices matching the search term
+        newQueryHandler().respond(getRequestCycle().getRequest(), (WebResponse) getRequestCycle().getResponse());
+    }
 
-        String term = params.getParameterValue("term").toOptionalString();
+    /**
+     * @return query handler that writes results through this component's {@link #addValues(JSONWriter, Iterable)}
+     */
+    private QueryHandler<T> newQueryHandler() {
+        return new QueryHandler<T>(getProvider(), getGroupLimit()) {
+            @Override
+            protected Component getComponent() {
+                return AbstractSelect2Choice.this;
+            }
 
-        int page = params.getParameterValue("page").toInt(1);
-        // select2 uses 1-based paging, but in wicket world we are used to
-        // 0-based
-        page -= 1;
+            @Override
+            protected boolean isStreamingSupported() {
+                return AbstractSelect2Choice.this.isStreamingSupported();
+            }
 
-        Response<T> response = new Response<T>();
-        getProvider().query(term, page, response);
+            @Override
+            protected void addValues(JSONWriter json, Iterable<T> response) throws JSONException {
+                AbstractSelect2Choice.this.addValues(json, response);
+            }
 
-        // jsonize and write out the choices to the response
+            @Override
+            protected void addValue(JSONWriter json, T item) throws JSONException {
+                AbstractSelect2Choice.this.addValue(json, item);
+            }
+        };
+    }
 
-        WebResponse webResponse = (WebResponse) getRequestCycle().getResponse();
-        webResponse.setContentType("application/json");
+    /**
+     * @return maximum number of choices per group and page, {@code 0} for no limit, or {@code -1} if this component
+     *         does not group choices
+     */
+    int getGroupLimit() {
+        return -1;
+    }
 
-        OutputStreamWriter out = new OutputStreamWriter(webResponse.getOutputStream(), getRequest().getCharset());
-        JSONWriter json = new JSONWriter(out);
+    /**
+     * @return choice ids contained in the raw input of this component
+     */
+    abstract Collection<String> getInputIds();
 
-        try {
-            json.object().key("results").array();
-            addValues(json, response);
-            json.endArray().key("more").value(response.getHasMore()).endObject();
-        } catch (JSONException e) {
-            throw new RuntimeException("Could not write Json response", e);
+    /**
+     * Converts choice ids into choice objects. If the provider {@link ChoiceProvider#supportsBatching() supports
+     * batching} the ids of all components in the form using the same provider are converted at once.
+     *
+     * @param ids choice ids
+     * @return choices
+     */
+    protected final Collection<T> toChoices(Collection<String> ids) {
+        Select2Metrics metrics = ApplicationSettings.metrics();
+        Object event = Select2Events.beginConversion();
+        if (metrics == null && event == null) {
+            return ChoiceBatch.toChoices(this, ids);
+        }
+        long start = System.nanoTime();
+        Collection<T> choices = ChoiceBatch.toChoices(this, ids);
+        if (metrics != null) {
+            metrics.inputConverted(getProvider().getMetricsName(), System.nanoTime() - start, ids.size());
         }
+        Select2Events.endConversion(event, this, getProvider().getMetricsName(), ids.size());
+        return choices;
+    }
+
+    /**
+     * Must be called by {@link #convertInput()} implementations once the converted input is set
+     */
+    protected final void markInputConverted() {
+        inputConverted = true;
+    }
 
-        try {
-            out.flush();
-        } catch (IOException e) {
-            throw new RuntimeException("Could not write Json to servlet response", e);
+    /**
+     * Converts the raw input unless that already happened during the current request, which is the case when the
+     * form has been validated
+     */
+    protected final void convertInputIfNecessary() {
+        if (!inputConverted) {
+            convertInput();
         }
     }
 
@@ -154,21 +254,45 @@ abstract class AbstractSelect2Choice<T, M> extends Select2ChoiceBaseComponent<M>
 
     @Override
     protected void onDetach() {
-        getProvider().detach();
+        // shared providers are used concurrently by many components and are not detached by them
+        if (sharedProviderName == null) {
+            getProvider().detach();
+        }
+        inputConverted = false;
         super.onDetach();
     }
 
     @Override
     protected boolean getStatelessHint() {
-        return false;
+        return sharedProviderName != null && super.getStatelessHint();
     }
 
 
+    /**
+     * Tells whether query results can be serialized while the provider is still producing them, see
+     * {@link ChoiceProvider#supportsStreaming()}. Components that need to see all results before writing them, such as
+     * ones that override {@link #addValues(JSONWriter, Iterable)}, should return {@code false}.
+     *
+     * @return {@code true} if query results can be streamed
+     */
+    protected boolean isStreamingSupported() {
+        return getProvider().supportsStreaming();
+    }
+
     protected void addValues(final JSONWriter json, final Iterable<T> response) throws JSONException {
         for (T item : response) {
-            json.object();
-            getProvider().toJson(item, json);
-            json.endObject();
+            addValue(json, item);
         }
     }
+
+    /**
+     * Writes a single choice into the query response
+     *
+     * @param json json writer
+     * @param item choice
+     * @throws JSONException
+     */
+    protected void addValue(final JSONWriter json, final T item) throws JSONException {
+        getProvider().writeChoice(item, json);
+    }
 }
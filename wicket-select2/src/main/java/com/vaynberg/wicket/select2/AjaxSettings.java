@@ -12,7 +12,11 @@
  */
 package com.vaynberg.wicket.select2;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Objects;
 
 import org.json.JSONException;
 import org.json.JSONWriter;
@@ -20,11 +24,15 @@ import org.json.JSONWriter;
 import com.vaynberg.wicket.select2.json.Json;
 
 /**
- * Select2 Ajax settings. Refer to the Select2 documentation for what these options mean.
+ * Select2 Ajax settings. Refer to the Select2 documentation for what these options mean. Serialized compactly like
+ * {@link Settings}.
  *
  * @author igor
  */
-public final class AjaxSettings implements Serializable {
+public final class AjaxSettings implements Externalizable {
+
+    /** dataType, data and results: written by the components the same way for all of them */
+    private static final int SHARED_OPTIONS = 0xE;
 
     private CharSequence url;
     private String dataType = "json";
@@ -34,35 +42,93 @@ public final class AjaxSettings implements Serializable {
     /** Whether or not to use traditional parameter encoding. */
     private Boolean traditional;
 
+    /** Number of changes to settings other than the url, see {@link Settings#toJson()} */
+    private transient int modCount;
+
     void toJson(JSONWriter writer) throws JSONException {
+        toJson(writer, url, null);
+    }
+
+    /**
+     * Writes the settings with the specified value in place of the url, leaving out settings that have the same value
+     * in {@code base}
+     *
+     * @param writer json writer
+     * @param url    url value
+     * @param base   settings to compare with or {@code null} to write all settings
+     * @throws JSONException
+     */
+    void toJson(JSONWriter writer, Object url, AjaxSettings base) throws JSONException {
+        boolean all = base == null;
         writer.object();
-        Json.writeFunction(writer, "data", data);
-        Json.writeObject(writer, "dataType", dataType);
-        Json.writeObject(writer, "quietMillis", quietMillis);
-        Json.writeFunction(writer, "results", results);
+        if (all || !Objects.equals(data, base.data)) {
+            Json.writeFunction(writer, "data", data);
+        }
+        if (all || !Objects.equals(dataType, base.dataType)) {
+            Json.writeObject(writer, "dataType", dataType);
+        }
+        if (all || quietMillis != base.quietMillis) {
+            Json.writeObject(writer, "quietMillis", quietMillis);
+        }
+        if (all || !Objects.equals(results, base.results)) {
+            Json.writeFunction(writer, "results", results);
+        }
         Json.writeObject(writer, "url", url);
-        Json.writeObject(writer, "traditional", traditional);
+        if (all || !Objects.equals(traditional, base.traditional)) {
+            Json.writeObject(writer, "traditional", traditional);
+        }
         writer.endObject();
     }
 
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        Object[] options = {url, dataType, data, results, traditional};
+        int set = 0;
+        for (int i = 0; i < options.length; i++) {
+            if (options[i] != null) {
+                set |= 1 << i;
+            }
+        }
+        out.writeByte(set);
+        for (int i = 0; i < options.length; i++) {
+            Settings.writeOption(out, options[i], (SHARED_OPTIONS & (1 << i)) != 0);
+        }
+        out.writeInt(quietMillis);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        int set = in.readByte();
+        url = (CharSequence) Settings.readOption(in, set, SHARED_OPTIONS, 0);
+        dataType = (String) Settings.readOption(in, set, SHARED_OPTIONS, 1);
+        data = (String) Settings.readOption(in, set, SHARED_OPTIONS, 2);
+        results = (String) Settings.readOption(in, set, SHARED_OPTIONS, 3);
+        traditional = (Boolean) Settings.readOption(in, set, SHARED_OPTIONS, 4);
+        quietMillis = in.readInt();
+    }
+
     public void setUrl(CharSequence url) {
         this.url = url;
     }
 
     public void setDataType(String dataType) {
         this.dataType = dataType;
+        modCount++;
     }
 
     public void setQuietMillis(int quietMillis) {
         this.quietMillis = quietMillis;
+        modCount++;
     }
 
     public void setData(String data) {
         this.data = data;
+        modCount++;
     }
 
     public void setResults(String results) {
         this.results = results;
+        modCount++;
     }
 
     public CharSequence getUrl() {
@@ -85,11 +151,16 @@ public final class AjaxSettings implements Serializable {
         return results;
     }
 
+    int getModCount() {
+        return modCount;
+    }
+
     public boolean isTraditional() {
         return traditional;
     }
 
     public void setTraditional(boolean traditional) {
         this.traditional = traditional;
+        modCount++;
     }
 }
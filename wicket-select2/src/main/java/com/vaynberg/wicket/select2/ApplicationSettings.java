@@ -12,9 +12,16 @@
  */
 package com.vaynberg.wicket.select2;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.wicket.Application;
 import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.markup.head.JavaScriptReferenceHeaderItem;
 import org.apache.wicket.protocol.http.WebApplication;
+import org.apache.wicket.request.resource.JavaScriptResourceReference;
 import org.apache.wicket.request.resource.PackageResourceReference;
 import org.apache.wicket.request.resource.ResourceReference;
 
@@ -30,10 +37,13 @@ public class ApplicationSettings {
 
     private static final MetaDataKey<ApplicationSettings> KEY = new MetaDataKey<ApplicationSettings>() {};
 
-    private ResourceReference javaScriptReference = new PackageResourceReference(ApplicationSettings.class,
+    // package resources resolve to res/select2.min.js when the application uses minified resources, which Wicket
+    // enables for the DEPLOYMENT configuration type
+    private ResourceReference javaScriptReference = new JavaScriptResourceReference(ApplicationSettings.class,
             "res/select2.js");
-    private ResourceReference mouseWheelReference = new PackageResourceReference(ApplicationSettings.class,
+    private ResourceReference mouseWheelReference = new JavaScriptResourceReference(ApplicationSettings.class,
             "res/jquery.mousewheel.js");
+    private ResourceReference localeReference;
     private ResourceReference cssReference = new PackageResourceReference(ApplicationSettings.class,
             "res/select2.css");
     private ResourceReference jqueryUIReference = new PackageResourceReference(ApplicationSettings.class,
@@ -44,6 +54,25 @@ public class ApplicationSettings {
     private boolean includeCss = true;
     private boolean includeJqueryUI = true;
 
+    private final ConcurrentMap<String, QueryCache<?>> queryCaches = new ConcurrentHashMap<String, QueryCache<?>>();
+    private final ConcurrentMap<String, QueryCoalescer<?>> queryCoalescers =
+            new ConcurrentHashMap<String, QueryCoalescer<?>>();
+    private final ConcurrentMap<String, ChoiceJsonCache> jsonCaches = new ConcurrentHashMap<String, ChoiceJsonCache>();
+    private final ConcurrentMap<String, Settings> settingsProfiles = new ConcurrentHashMap<String, Settings>();
+    private final ConcurrentMap<String, ChoiceProvider<?>> providers =
+            new ConcurrentHashMap<String, ChoiceProvider<?>>();
+    private final StringPool stringPool = new StringPool();
+
+    private long queryTimeoutMillis;
+    private int queryCompressionThreshold;
+    private boolean batchedInitialization;
+    private Select2Metrics metrics;
+    private double queryRateLimit;
+    private int queryRateBurst;
+    private boolean queryCancellation;
+    private boolean queryCancellationListenerAdded;
+    private Select2QueryResource queryResource = new Select2QueryResource();
+
     /** Private constructor, use {@link #get()} instead. */
     private ApplicationSettings() {}
 
@@ -110,6 +139,63 @@ public class ApplicationSettings {
         return this;
     }
 
+    public ResourceReference getLocaleReference() {
+        return localeReference;
+    }
+
+    /**
+     * Sets the Select2 locale script to include after Select2, for example
+     * {@code new JavaScriptResourceReference(ApplicationSettings.class, "res/select2_locale_de.js")}. No locale script
+     * is included by default, the messages of the components are localized with Wicket's resource strings.
+     *
+     * @param localeReference locale script or {@code null}
+     * @return {@code this} for chaining
+     */
+    public ApplicationSettings setLocaleReference(ResourceReference localeReference) {
+        this.localeReference = localeReference;
+        return this;
+    }
+
+    /**
+     * Registers the mousewheel, Select2 and locale scripts that are included by {@link Select2ResourcesBehavior} as a
+     * single Wicket resource bundle, so pages load one script instead of several. Should be called after the
+     * references are configured, usually only in deployment mode:
+     *
+     * <pre>
+     * if (usesDeploymentConfig()) {
+     *     ApplicationSettings.get().registerJavaScriptBundle();
+     * }
+     * </pre>
+     *
+     * @return header item of the bundle
+     * @throws IllegalStateException if one of the bundled references is not a {@link JavaScriptResourceReference}
+     */
+    public JavaScriptReferenceHeaderItem registerJavaScriptBundle() {
+        List<JavaScriptResourceReference> references = new ArrayList<JavaScriptResourceReference>();
+        if (includeMouseWheel) {
+            references.add(toJavaScriptResourceReference(mouseWheelReference));
+        }
+        if (includeJavascript) {
+            references.add(toJavaScriptResourceReference(javaScriptReference));
+            if (localeReference != null) {
+                references.add(toJavaScriptResourceReference(localeReference));
+            }
+        }
+        if (references.isEmpty()) {
+            throw new IllegalStateException("Could not register JavaScript bundle, no scripts are included");
+        }
+        return Application.get().getResourceBundles().addJavaScriptBundle(ApplicationSettings.class,
+                "res/select2-bundle.js", references.toArray(new JavaScriptResourceReference[references.size()]));
+    }
+
+    private static JavaScriptResourceReference toJavaScriptResourceReference(ResourceReference reference) {
+        if (!(reference instanceof JavaScriptResourceReference)) {
+            throw new IllegalStateException("Could not register JavaScript bundle, reference: " + reference
+                    + " is not a JavaScriptResourceReference");
+        }
+        return (JavaScriptResourceReference) reference;
+    }
+
     public ResourceReference getJqueryUIReference() {
         return jqueryUIReference;
     }
@@ -119,6 +205,305 @@ public class ApplicationSettings {
         return this;
     }
 
+    public long getQueryTimeoutMillis() {
+        return queryTimeoutMillis;
+    }
+
+    /**
+     * Sets how long a query may take. Once the timeout has passed {@link Response#isCancelled()} returns {@code true},
+     * and the query is answered with an empty result and {@code more=false} instead of the provider's results.
+     * <p>
+     * Queries still run on the request thread, which the provider holds until it returns; the timeout does not
+     * interrupt it. Providers in front of slow backends should check {@link Response#isCancelled()} between steps, or
+     * pass the remaining time on as a timeout of their own, e.g. a JDBC query timeout. Results are not streamed while
+     * a timeout is set, because they are discarded when the query times out.
+     *
+     * @param queryTimeoutMillis timeout in milliseconds, {@code 0} or less for no timeout
+     * @return {@code this} for chaining
+     */
+    public ApplicationSettings setQueryTimeoutMillis(long queryTimeoutMillis) {
+        this.queryTimeoutMillis = queryTimeoutMillis;
+        return this;
+    }
+
+    public int getQueryCompressionThreshold() {
+        return queryCompressionThreshold;
+    }
+
+    /**
+     * Enables gzip compression of query responses for clients that accept it. Only responses of at least
+     * {@code queryCompressionThreshold} bytes are compressed, smaller ones are not worth the effort. Compression is
+     * disabled by default, which is appropriate when the servlet container or a proxy already compresses responses.
+     *
+     * @param queryCompressionThreshold minimum response size in bytes, {@code 0} or less to disable compression
+     * @return {@code this} for chaining
+     */
+    public ApplicationSettings setQueryCompressionThreshold(int queryCompressionThreshold) {
+        this.queryCompressionThreshold = queryCompressionThreshold;
+        return this;
+    }
+
+    public boolean isBatchedInitialization() {
+        return batchedInitialization;
+    }
+
+    /**
+     * Initializes all Select2 components of a page, or of an Ajax response, with a single DOM ready script instead of
+     * one script per component. The script is only complete once every component has rendered its header, so this
+     * relies on Wicket's default aggregation of header items and is disabled by default.
+     *
+     * @param batchedInitialization {@code true} to initialize components with a single script
+     * @return {@code this} for chaining
+     */
+    public ApplicationSettings setBatchedInitialization(boolean batchedInitialization) {
+        this.batchedInitialization = batchedInitialization;
+        return this;
+    }
+
+    public Select2Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the listener that receives timings and counts of queries, input conversions and cache lookups, for example
+     * a {@link JmxSelect2Metrics}. Nothing is measured while no listener is set, which is the default.
+     *
+     * @param metrics metrics listener or {@code null}
+     * @return {@code this} for chaining
+     */
+    public ApplicationSettings setMetrics(Select2Metrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public double getQueryRateLimit() {
+        return queryRateLimit;
+    }
+
+    public int getQueryRateBurst() {
+        return queryRateBurst;
+    }
+
+    /**
+     * Limits how often each session may query each component, or each shared provider. Queries over the limit are
+     * answered with {@code 429 Too Many Requests} without running the provider, which Select2 shows as a failed
+     * search. Complements the client-side {@link AjaxSettings#setQuietMillis(int) quiet period}, which scripted
+     * clients and misbehaving browsers do not honor. Only sessions that are bound are limited. Disabled by default.
+     *
+     * @param queriesPerSecond sustained number of queries per second, {@code 0} to disable the limit
+     * @param burst            number of queries allowed in quick succession before the sustained rate applies
+     * @return {@code this} for chaining
+     */
+    public ApplicationSettings setQueryRateLimit(double queriesPerSecond, int burst) {
+        if (queriesPerSecond > 0 && burst < 1) {
+            throw new IllegalArgumentException("Argument 'burst' must be at least 1");
+        }
+        this.queryRateLimit = queriesPerSecond;
+        this.queryRateBurst = burst;
+        return this;
+    }
+
+    public boolean isQueryCancellation() {
+        return queryCancellation;
+    }
+
+    /**
+     * Tracks the queries of each component per session so that a query is {@link Response#isCancelled() cancelled}
+     * as soon as a newer query of the same component arrives, e.g. because the user kept typing. Providers can then
+     * stop superseded queries early, and queries superseded while waiting for the page lock do not run at all.
+     * Queries of providers whose results may be cached by browsers, see {@link ChoiceProvider#getCacheMaxAge()} and
+     * {@link ChoiceProvider#getVersion()}, are never cancelled. Disabled by default.
+     *
+     * @param queryCancellation {@code true} to cancel superseded queries
+     * @return {@code this} for chaining
+     */
+    public ApplicationSettings setQueryCancellation(boolean queryCancellation) {
+        if (queryCancellation && !queryCancellationListenerAdded) {
+            Application.get().getRequestCycleListeners().add(new QueryCancellation.Listener());
+            queryCancellationListenerAdded = true;
+        }
+        this.queryCancellation = queryCancellation;
+        return this;
+    }
+
+    /**
+     * @return metrics listener of the current application or {@code null} if there is none or no application is
+     *         attached to the current thread
+     */
+    static Select2Metrics metrics() {
+        return Application.exists() ? get().getMetrics() : null;
+    }
+
+    /**
+     * Retrieves the query cache registered under the specified name. If no cache is registered an
+     * {@link InMemoryQueryCache} with default settings is registered and returned.
+     *
+     * @param name cache name
+     * @return query cache
+     * @see CachingChoiceProvider
+     */
+    @SuppressWarnings("unchecked")
+    public <T> QueryCache<T> getQueryCache(String name) {
+        QueryCache<?> cache = queryCaches.get(name);
+        if (cache == null) {
+            QueryCache<?> created = new InMemoryQueryCache<Object>();
+            cache = queryCaches.putIfAbsent(name, created);
+            if (cache == null) {
+                cache = created;
+            }
+        }
+        return (QueryCache<T>) cache;
+    }
+
+    /**
+     * Registers a query cache under the specified name, replacing any previously registered cache.
+     *
+     * @param name  cache name
+     * @param cache query cache
+     * @return {@code this} for chaining
+     * @see CachingChoiceProvider
+     */
+    public ApplicationSettings setQueryCache(String name, QueryCache<?> cache) {
+        queryCaches.put(name, cache);
+        return this;
+    }
+
+    /**
+     * Retrieves the choice Json cache registered under the specified name. If no cache is registered a
+     * {@link ChoiceJsonCache} with the default budget is registered and returned.
+     *
+     * @param name cache name
+     * @return choice Json cache
+     * @see ChoiceProvider#getJsonCache()
+     */
+    public ChoiceJsonCache getChoiceJsonCache(String name) {
+        ChoiceJsonCache cache = jsonCaches.get(name);
+        if (cache == null) {
+            ChoiceJsonCache created = new ChoiceJsonCache();
+            cache = jsonCaches.putIfAbsent(name, created);
+            if (cache == null) {
+                cache = created;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Registers a choice Json cache under the specified name, replacing any previously registered cache.
+     *
+     * @param name  cache name
+     * @param cache choice Json cache
+     * @return {@code this} for chaining
+     */
+    public ApplicationSettings setChoiceJsonCache(String name, ChoiceJsonCache cache) {
+        jsonCaches.put(name, cache);
+        return this;
+    }
+
+    /**
+     * Registers named Select2 settings that components can use as the base of their own settings, see
+     * {@link Select2ChoiceBaseComponent#setSettingsProfile(String)}. The profile is rendered once per page and each
+     * component only sends the settings that differ from it. Profiles should not be modified once components use them.
+     *
+     * @param name    profile name
+     * @param profile settings shared by components using the profile
+     * @return {@code this} for chaining
+     */
+    public ApplicationSettings registerSettingsProfile(String name, Settings profile) {
+        if (name == null) {
+            throw new IllegalArgumentException("Argument 'name' cannot be null");
+        }
+        if (profile == null) {
+            throw new IllegalArgumentException("Argument 'profile' cannot be null");
+        }
+        settingsProfiles.put(name, profile);
+        return this;
+    }
+
+    /**
+     * @return canonical instances of the strings shared by the settings of this application's components
+     */
+    StringPool getStringPool() {
+        return stringPool;
+    }
+
+    /**
+     * @param name profile name
+     * @return settings profile registered under the name or {@code null} if there is none
+     */
+    public Settings getSettingsProfile(String name) {
+        return settingsProfiles.get(name);
+    }
+
+    /**
+     * Retrieves the query coalescer registered under the specified name, registering a new one if necessary.
+     *
+     * @param name coalescer name
+     * @return query coalescer
+     * @see CoalescingChoiceProvider
+     */
+    @SuppressWarnings("unchecked")
+    public <T> QueryCoalescer<T> getQueryCoalescer(String name) {
+        QueryCoalescer<?> coalescer = queryCoalescers.get(name);
+        if (coalescer == null) {
+            QueryCoalescer<?> created = new QueryCoalescer<Object>();
+            coalescer = queryCoalescers.putIfAbsent(name, created);
+            if (coalescer == null) {
+                coalescer = created;
+            }
+        }
+        return (QueryCoalescer<T>) coalescer;
+    }
+
+    /**
+     * Registers an application-scoped provider that components can use through
+     * {@link Select2Choice#setSharedProvider(String)}. Shared providers are used concurrently by all requests and must
+     * therefore be thread-safe; they are never detached.
+     * <p>
+     * Registered providers are public endpoints that can be queried without a page, see {@link Select2QueryResource}.
+     *
+     * @param name     provider name
+     * @param provider choice provider
+     * @return {@code this} for chaining
+     * @see Select2QueryResource
+     */
+    public ApplicationSettings registerProvider(String name, ChoiceProvider<?> provider) {
+        providers.put(name, provider);
+        Application.get().getResourceReferenceRegistry().registerResourceReference(Select2QueryResource.getReference());
+        return this;
+    }
+
+    public Select2QueryResource getQueryResource() {
+        return queryResource;
+    }
+
+    /**
+     * Sets the resource that answers queries of shared providers, e.g. a subclass that overrides
+     * {@link Select2QueryResource#isQueryAllowed(String, org.apache.wicket.request.resource.IResource.Attributes)} to
+     * restrict who may query which provider.
+     *
+     * @param queryResource query resource
+     * @return {@code this} for chaining
+     */
+    public ApplicationSettings setQueryResource(Select2QueryResource queryResource) {
+        if (queryResource == null) {
+            throw new IllegalArgumentException("Argument 'queryResource' cannot be null");
+        }
+        this.queryResource = queryResource;
+        return this;
+    }
+
+    /**
+     * Retrieves a provider registered with {@link #registerProvider(String, ChoiceProvider)}
+     *
+     * @param name provider name
+     * @return choice provider or {@code null} if none is registered under the name
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ChoiceProvider<T> getProvider(String name) {
+        return (ChoiceProvider<T>) providers.get(name);
+    }
+
     /**
      * Retrieves the instance of settings object.
      *
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.markup.head.IHeaderResponse;
+import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.json.JSONObject;
+
+/**
+ * DOM ready script that initializes all Select2 components rendered in a response with a single loop over an array
+ * of {@code [markupId, settings, selection]} entries, see {@link ApplicationSettings#setBatchedInitialization(boolean)}.
+ * <p>
+ * There is one instance per header response, so a request that renders several responses, e.g. a page and then an
+ * Ajax update or another page, initializes the components of each in its own script. Components add their entries
+ * while their headers are rendered and the script is only generated when Wicket's resource aggregation writes out the
+ * DOM ready scripts, after all components have been rendered.
+ */
+final class BatchedInitScript extends OnDomReadyHeaderItem {
+
+    private static final MetaDataKey<IdentityHashMap<IHeaderResponse, BatchedInitScript>> KEY =
+            new MetaDataKey<IdentityHashMap<IHeaderResponse, BatchedInitScript>>() {};
+
+    private static final String BOOTSTRAP = "(function($) { var s = %s;"
+            + " for (var i = 0; i < s.length; i++) { var e = $(document.getElementById(s[i][0]));"
+            + " e.select2(s[i][1]); if (s[i].length > 2) { e.select2('data', s[i][2]); } } })(jQuery);";
+
+    /** markup id to {settings, selection} */
+    private final Map<String, CharSequence[]> entries = new LinkedHashMap<String, CharSequence[]>();
+
+    private BatchedInitScript() {
+        super("");
+    }
+
+    /**
+     * @param response header response the components are rendered to
+     * @return script collecting the entries of the header response
+     */
+    static BatchedInitScript get(IHeaderResponse response) {
+        RequestCycle cycle = RequestCycle.get();
+        IdentityHashMap<IHeaderResponse, BatchedInitScript> scripts = cycle.getMetaData(KEY);
+        if (scripts == null) {
+            scripts = new IdentityHashMap<IHeaderResponse, BatchedInitScript>();
+            cycle.setMetaData(KEY, scripts);
+        }
+        BatchedInitScript script = scripts.get(response);
+        if (script == null) {
+            script = new BatchedInitScript();
+            scripts.put(response, script);
+        }
+        return script;
+    }
+
+    /**
+     * Adds a component to initialize, replacing any earlier entry for the same markup id
+     *
+     * @param markupId markup id of the component
+     * @param settings settings Json
+     */
+    void add(String markupId, CharSequence settings) {
+        entries.put(markupId, new CharSequence[] {settings, null});
+    }
+
+    /**
+     * Sets the initial selection of a component added before
+     *
+     * @param markupId  markup id of the component
+     * @param selection selection Json
+     */
+    void setSelection(String markupId, CharSequence selection) {
+        CharSequence[] entry = entries.get(markupId);
+        if (entry == null) {
+            throw new IllegalStateException("Select2 component with markup id: " + markupId + " was not added");
+        }
+        entry[1] = selection;
+    }
+
+    @Override
+    public CharSequence getJavaScript() {
+        if (entries.isEmpty()) {
+            return "";
+        }
+
+        StringBuilder array = new StringBuilder(entries.size() * 256);
+        array.append('[');
+        for (Map.Entry<String, CharSequence[]> entry : entries.entrySet()) {
+            if (array.length() > 1) {
+                array.append(',');
+            }
+            array.append('[').append(JSONObject.quote(entry.getKey())).append(',').append(entry.getValue()[0]);
+            if (entry.getValue()[1] != null) {
+                array.append(',').append(entry.getValue()[1]);
+            }
+            array.append(']');
+        }
+        array.append(']');
+        return String.format(BOOTSTRAP, array);
+    }
+
+    @Override
+    public Iterable<?> getRenderTokens() {
+        return Collections.singletonList("select2-batched-init");
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof BatchedInitScript;
+    }
+
+    @Override
+    public int hashCode() {
+        return BatchedInitScript.class.hashCode();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of a {@link Response} kept by a {@link QueryCache}.
+ *
+ * @param <T> type of choice object
+ */
+public final class CachedResponse<T> implements Serializable {
+
+    private final List<T> results;
+    private final Boolean hasMore;
+    private final String cursor;
+    private final Set<String> ids;
+    private final long created;
+
+    /** names, sizes and {@code more} flags of the groups of a {@link GroupedResponse}, {@code null} otherwise */
+    private final String[] groupNames;
+    private final int[] groupSizes;
+    private final boolean[] groupHasMore;
+
+    /**
+     * Constructor
+     *
+     * @param results choices
+     * @param hasMore the {@code more} flag
+     * @param ids     ids of the choices, or {@code null} if they are not known
+     * @param created creation timestamp in milliseconds
+     */
+    public CachedResponse(Collection<? extends T> results, Boolean hasMore, Set<String> ids, long created) {
+        this(results, hasMore, null, ids, created);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param results choices
+     * @param hasMore the {@code more} flag
+     * @param cursor  continuation token for the next page, or {@code null}
+     * @param ids     ids of the choices, or {@code null} if they are not known
+     * @param created creation timestamp in milliseconds
+     */
+    public CachedResponse(Collection<? extends T> results, Boolean hasMore, String cursor, Set<String> ids,
+            long created) {
+        this(results, hasMore, cursor, ids, created, null, null, null);
+    }
+
+    private CachedResponse(Collection<? extends T> results, Boolean hasMore, String cursor, Set<String> ids,
+            long created, String[] groupNames, int[] groupSizes, boolean[] groupHasMore) {
+        this.results = Collections.unmodifiableList(new ArrayList<T>(results));
+        this.hasMore = hasMore;
+        this.cursor = cursor;
+        this.ids = ids == null ? null : Collections.unmodifiableSet(ids);
+        this.created = created;
+        this.groupNames = groupNames;
+        this.groupSizes = groupSizes;
+        this.groupHasMore = groupHasMore;
+    }
+
+    /**
+     * Takes a snapshot of a response, keeping its groups if it is a {@link GroupedResponse}
+     *
+     * @param response response
+     * @param ids      ids of the choices, or {@code null} if they are not known
+     * @param created  creation timestamp in milliseconds
+     * @return snapshot
+     */
+    static <T> CachedResponse<T> of(Response<T> response, Set<String> ids, long created) {
+        if (!(response instanceof GroupedResponse)) {
+            return new CachedResponse<T>(response.getResults(), response.getHasMore(), response.getCursor(), ids,
+                    created);
+        }
+        GroupedResponse<T> grouped = (GroupedResponse<T>) response;
+        int count = grouped.getGroupCount();
+        String[] names = new String[count];
+        int[] sizes = new int[count];
+        boolean[] more = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = grouped.getGroupName(i);
+            sizes[i] = grouped.getGroupChoices(i).size();
+            more[i] = grouped.getGroupHasMore(i);
+        }
+        return new CachedResponse<T>(response.getResults(), response.getHasMore(), response.getCursor(), ids,
+                created, names, sizes, more);
+    }
+
+    /**
+     * Adds the cached choices to a response, along with their groups if both this snapshot and the response are
+     * grouped, and copies the {@code more} flag and the cursor
+     *
+     * @param response response
+     */
+    void copyTo(Response<T> response) {
+        if (groupNames != null && response instanceof GroupedResponse) {
+            GroupedResponse<T> grouped = (GroupedResponse<T>) response;
+            int start = 0;
+            for (int i = 0; i < groupNames.length; i++) {
+                if (i > 0) {
+                    // the first group holds the choices added before any group was started
+                    grouped.startGroup(groupNames[i]);
+                }
+                grouped.addAll(results.subList(start, start + groupSizes[i]));
+                if (groupHasMore[i]) {
+                    grouped.setGroupHasMore(true);
+                }
+                start += groupSizes[i];
+            }
+        } else {
+            response.addAll(results);
+        }
+        response.setHasMore(hasMore);
+        response.setCursor(cursor);
+    }
+
+    /**
+     * @return unmodifiable list of choices
+     */
+    public List<T> getResults() {
+        return results;
+    }
+
+    /**
+     * @return the {@code more} flag
+     */
+    public Boolean getHasMore() {
+        return hasMore;
+    }
+
+    /**
+     * @return continuation token for the next page, or {@code null}
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return ids of the cached choices, or {@code null} if they are not known
+     */
+    public Set<String> getIds() {
+        return ids;
+    }
+
+    /**
+     * @return creation timestamp in milliseconds
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Checks whether this response contains the specified choice. Responses whose ids are not known are assumed to
+     * contain every choice.
+     *
+     * @param id choice id
+     * @return {@code true} if the choice may be contained in this response
+     */
+    public boolean mayContain(String id) {
+        return ids == null || ids.contains(id);
+    }
+}
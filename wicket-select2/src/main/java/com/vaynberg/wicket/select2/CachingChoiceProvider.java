@@ -0,0 +1,261 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.json.JSONWriter;
+
+/**
+ * A {@link ChoiceProvider} decorator that caches query results keyed by search term, page and cursor.
+ * <p>
+ * Results are kept in the application-wide {@link QueryCache} registered under the cache name with
+ * {@link ApplicationSettings#setQueryCache(String, QueryCache)}, so all components using a provider with the same
+ * cache name share results. If no cache is registered under the name an {@link InMemoryQueryCache} with default
+ * settings is created on first use.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * // in Application#init()
+ * ApplicationSettings.get().setQueryCache(&quot;countries&quot;, new InMemoryQueryCache&lt;Country&gt;(500, 60000));
+ *
+ * // in page
+ * new Select2Choice&lt;Country&gt;(&quot;country&quot;, model, new CachingChoiceProvider&lt;Country&gt;(new CountriesProvider(),
+ *         &quot;countries&quot;));
+ * </pre>
+ *
+ * @param <T> type of choice object
+ */
+public class CachingChoiceProvider<T> extends ChoiceProvider<T> {
+
+    private final ChoiceProvider<T> delegate;
+    private final String cacheName;
+
+    /**
+     * Constructor
+     *
+     * @param delegate  provider whose query results will be cached
+     * @param cacheName name of the application-wide cache to use
+     */
+    public CachingChoiceProvider(ChoiceProvider<T> delegate, String cacheName) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Argument 'delegate' cannot be null");
+        }
+        if (cacheName == null) {
+            throw new IllegalArgumentException("Argument 'cacheName' cannot be null");
+        }
+        this.delegate = delegate;
+        this.cacheName = cacheName;
+    }
+
+    @Override
+    public void query(String term, int page, Response<T> response) {
+        query(term, null, page, response);
+    }
+
+    @Override
+    public void query(String term, String cursor, int page, Response<T> response) {
+        QueryCache<T> cache = getCache();
+        int groupLimit = getGroupLimit(response);
+        String key = getCacheKey(term, cursor, page);
+        if (groupLimit >= 0) {
+            key = "g" + groupLimit + ":" + key;
+        }
+
+        CachedResponse<T> cached = cache.get(key);
+        Select2Metrics metrics = ApplicationSettings.metrics();
+        if (metrics != null) {
+            metrics.cacheLookup(getMetricsName(), Select2Metrics.QUERY_CACHE, cached != null);
+        }
+        if (cached == null) {
+            Response<T> fresh = groupLimit >= 0 ? new GroupedResponse<T>(groupLimit) : new Response<T>();
+            fresh.cancelWith(response);
+            delegate.query(term, cursor, page, fresh);
+            cached = CachedResponse.of(fresh, getIds(fresh), System.currentTimeMillis());
+            if (!fresh.isCancelled()) {
+                // the delegate may have stopped early
+                cache.put(key, cached);
+            }
+        }
+
+        cached.copyTo(response);
+    }
+
+    /**
+     * @return group limit of the response if the delegate groups choices itself, {@code -1} otherwise
+     */
+    private int getGroupLimit(Response<T> response) {
+        if (response instanceof GroupedResponse && delegate.supportsGrouping()) {
+            return ((GroupedResponse<T>) response).getGroupLimit();
+        }
+        return -1;
+    }
+
+    @Override
+    public void toJson(T choice, JSONWriter writer) throws JSONException {
+        delegate.toJson(choice, writer);
+    }
+
+    @Override
+    public Collection<T> toChoices(Collection<String> ids) {
+        return delegate.toChoices(ids);
+    }
+
+    @Override
+    public boolean supportsBatching() {
+        return delegate.supportsBatching();
+    }
+
+    @Override
+    public Map<String, T> toChoiceMap(Collection<String> ids) {
+        return delegate.toChoiceMap(ids);
+    }
+
+    @Override
+    public boolean supportsGrouping() {
+        return delegate.supportsGrouping();
+    }
+
+    @Override
+    public boolean supportsUtf8JsonWriter() {
+        return delegate.supportsUtf8JsonWriter();
+    }
+
+    @Override
+    public ChoiceJsonCache getJsonCache() {
+        return delegate.getJsonCache();
+    }
+
+    @Override
+    public String getMetricsName() {
+        return delegate.getMetricsName();
+    }
+
+    @Override
+    public String getJsonCacheKey(T choice) {
+        return delegate.getJsonCacheKey(choice);
+    }
+
+    @Override
+    public boolean supportsStreaming() {
+        return delegate.supportsStreaming();
+    }
+
+    @Override
+    public int getCacheMaxAge() {
+        return delegate.getCacheMaxAge();
+    }
+
+    @Override
+    public boolean isCachePublic() {
+        return delegate.isCachePublic();
+    }
+
+    @Override
+    public String getVersion() {
+        return delegate.getVersion();
+    }
+
+    /**
+     * Removes cached results that contain the choice with the specified id. If choice ids cannot be determined (see
+     * {@link #getId(Object)}) all cached results are removed. The choice's Json is also removed from the provider's
+     * {@link #getJsonCache() Json cache}, if any.
+     *
+     * @param id choice id
+     */
+    public void invalidate(Object id) {
+        getCache().invalidate(String.valueOf(id));
+        ChoiceJsonCache json = getJsonCache();
+        if (json != null) {
+            json.invalidate(String.valueOf(id));
+        }
+    }
+
+    /**
+     * Removes all cached results, as well as all Json in the provider's {@link #getJsonCache() Json cache}, if any
+     */
+    public void invalidateAll() {
+        getCache().clear();
+        ChoiceJsonCache json = getJsonCache();
+        if (json != null) {
+            json.clear();
+        }
+    }
+
+    /**
+     * @return the wrapped provider
+     */
+    public final ChoiceProvider<T> getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return the cache backing this provider
+     */
+    public QueryCache<T> getCache() {
+        return ApplicationSettings.get().getQueryCache(cacheName);
+    }
+
+    /**
+     * Builds the key under which results for the specified query are cached
+     *
+     * @param term   search term
+     * @param cursor continuation token or {@code null}
+     * @param page   results page
+     * @return cache key
+     */
+    protected String getCacheKey(String term, String cursor, int page) {
+        return page + ":" + (cursor == null ? "" : cursor.length() + ":" + cursor) + ":" + (term == null ? "" : term);
+    }
+
+    /**
+     * Extracts the id of a choice so cached results can be invalidated per choice. The default implementation
+     * supports delegates that extend {@link TextChoiceProvider}, directly or wrapped in a
+     * {@link CoalescingChoiceProvider}.
+     *
+     * @param choice choice
+     * @return id of the choice or {@code null} if it cannot be determined
+     */
+    protected Object getId(T choice) {
+        ChoiceProvider<T> provider = delegate;
+        while (provider instanceof CoalescingChoiceProvider) {
+            provider = ((CoalescingChoiceProvider<T>) provider).getDelegate();
+        }
+        if (provider instanceof TextChoiceProvider) {
+            return ((TextChoiceProvider<T>) provider).getId(choice);
+        }
+        return null;
+    }
+
+    private Set<String> getIds(Response<T> response) {
+        Set<String> ids = new HashSet<String>();
+        for (T choice : response) {
+            Object id = getId(choice);
+            if (id == null) {
+                return null;
+            }
+            ids.add(String.valueOf(id));
+        }
+        return ids;
+    }
+
+    @Override
+    public void detach() {
+        delegate.detach();
+    }
+}
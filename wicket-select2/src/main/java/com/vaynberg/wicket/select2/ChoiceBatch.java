@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.markup.html.form.Form;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.util.visit.IVisit;
+import org.apache.wicket.util.visit.IVisitor;
+
+/**
+ * Converts choice ids of all Select2 components in a form that share a batching {@link ChoiceProvider} with a single
+ * {@link ChoiceProvider#toChoiceMap(Collection)} call per request, see {@link ChoiceProvider#supportsBatching()}.
+ */
+final class ChoiceBatch {
+
+    /**
+     * Choices resolved during the current request, per provider instance. Ids that did not resolve map to
+     * {@code null} so they are not looked up again.
+     */
+    private static final MetaDataKey<Map<ChoiceProvider<?>, Map<String, Object>>> RESOLVED =
+            new MetaDataKey<Map<ChoiceProvider<?>, Map<String, Object>>>() {};
+
+    private ChoiceBatch() {}
+
+    /**
+     * Converts the component's choice ids, resolving the ids of all other components of the root form that use the
+     * same provider along the way. Components whose provider cannot be resolved are skipped, they report the missing
+     * provider when they convert their own input.
+     *
+     * @param component component whose input is being converted
+     * @param ids       choice ids to convert
+     * @return choices in the order of their ids
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Collection<T> toChoices(AbstractSelect2Choice<T, ?> component, Collection<String> ids) {
+        final ChoiceProvider<T> provider = component.getProvider();
+        if (!provider.supportsBatching()) {
+            return provider.toChoices(ids);
+        }
+
+        RequestCycle cycle = RequestCycle.get();
+        Map<ChoiceProvider<?>, Map<String, Object>> batches = cycle.getMetaData(RESOLVED);
+        if (batches == null) {
+            batches = new IdentityHashMap<ChoiceProvider<?>, Map<String, Object>>();
+            cycle.setMetaData(RESOLVED, batches);
+        }
+        Map<String, T> resolved = (Map<String, T>) (Map<String, ?>) batches.get(provider);
+        if (resolved == null) {
+            resolved = new HashMap<String, T>();
+            batches.put(provider, (Map<String, Object>) (Map<String, ?>) resolved);
+        }
+
+        if (!resolved.keySet().containsAll(ids)) {
+            final Set<String> pending = new LinkedHashSet<String>(ids);
+
+            Form<?> form = component.findParent(Form.class);
+            if (form != null) {
+                form.getRootForm().visitChildren(AbstractSelect2Choice.class,
+                        new IVisitor<AbstractSelect2Choice<?, ?>, Void>() {
+                            @Override
+                            public void component(AbstractSelect2Choice<?, ?> other, IVisit<Void> visit) {
+                                if (other.isEnabledInHierarchy() && other.isVisibleInHierarchy()
+                                        && other.findProvider() == provider) {
+                                    pending.addAll(other.getInputIds());
+                                }
+                            }
+                        });
+            }
+            pending.removeAll(resolved.keySet());
+
+            Map<String, T> found = provider.toChoiceMap(pending);
+            for (String id : pending) {
+                resolved.put(id, found.get(id));
+            }
+        }
+
+        List<T> choices = new ArrayList<T>(ids.size());
+        for (String id : ids) {
+            T choice = resolved.get(id);
+            if (choice != null) {
+                choices.add(choice);
+            }
+        }
+        return choices;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the serialized Json of individual choices, keyed by choice id, so that choices which are sent to the browser
+ * over and over again are serialized only once. Total size of the cached Json is bounded, the least recently used
+ * fragments are evicted first.
+ * <p>
+ * Providers enable the cache by returning it from {@link ChoiceProvider#getJsonCache()}. Fragments must be
+ * {@link #invalidate(String) invalidated} when the Json of a choice changes.
+ */
+public class ChoiceJsonCache {
+
+    /** Default budget: 1M characters of Json */
+    public static final long DEFAULT_MAX_CHARS = 1024 * 1024;
+
+    private final long maxChars;
+    private final LinkedHashMap<String, String> fragments = new LinkedHashMap<String, String>(16, 0.75f, true);
+    private long chars;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructs a cache holding up to {@link #DEFAULT_MAX_CHARS} characters of Json
+     */
+    public ChoiceJsonCache() {
+        this(DEFAULT_MAX_CHARS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxChars maximum number of characters of Json kept
+     */
+    public ChoiceJsonCache(long maxChars) {
+        if (maxChars < 1) {
+            throw new IllegalArgumentException("maxChars must be greater than zero");
+        }
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * @param id choice id
+     * @return serialized Json object of the choice or {@code null} if it is not cached
+     */
+    public String get(String id) {
+        String fragment;
+        synchronized (fragments) {
+            fragment = fragments.get(id);
+        }
+        (fragment == null ? misses : hits).incrementAndGet();
+        return fragment;
+    }
+
+    /**
+     * Caches the Json of a choice, evicting least recently used fragments as needed to stay within budget. Fragments
+     * larger than the whole budget are not cached.
+     *
+     * @param id       choice id
+     * @param fragment serialized Json object of the choice
+     */
+    public void put(String id, String fragment) {
+        if (fragment.length() > maxChars) {
+            return;
+        }
+        synchronized (fragments) {
+            String previous = fragments.put(id, fragment);
+            if (previous != null) {
+                chars -= previous.length();
+            }
+            chars += fragment.length();
+
+            for (Iterator<String> it = fragments.values().iterator(); chars > maxChars && it.hasNext(); ) {
+                chars -= it.next().length();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes the Json of a choice
+     *
+     * @param id choice id
+     */
+    public void invalidate(String id) {
+        synchronized (fragments) {
+            String previous = fragments.remove(id);
+            if (previous != null) {
+                chars -= previous.length();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached Json
+     */
+    public void clear() {
+        synchronized (fragments) {
+            fragments.clear();
+            chars = 0;
+        }
+    }
+
+    /**
+     * @return number of cached fragments
+     */
+    public int size() {
+        synchronized (fragments) {
+            return fragments.size();
+        }
+    }
+
+    /**
+     * @return number of characters of Json currently cached
+     */
+    public long getCharCount() {
+        synchronized (fragments) {
+            return chars;
+        }
+    }
+
+    /**
+     * @return number of lookups that found a fragment
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of lookups that did not find a fragment
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+}
@@ -13,11 +13,15 @@
 package com.vaynberg.wicket.select2;
 
 import java.util.Collection;
+import java.util.Map;
 
 import org.apache.wicket.model.IDetachable;
 import org.json.JSONException;
 import org.json.JSONWriter;
 
+import com.vaynberg.wicket.select2.json.JsonBuilder;
+import com.vaynberg.wicket.select2.json.JsonFunction;
+
 /**
  * <p>
  * Acts as a bridge between Select2 components and the application's domain model.
@@ -44,6 +48,23 @@ public abstract class ChoiceProvider<T> implements IDetachable {
      */
     public abstract void query(String term, int page, Response<T> response);
 
+    /**
+     * Queries application for choices that match the search {@code term}, continuing from the {@code cursor} set on
+     * the response to the previous page. This allows providers to resume a scan in constant time, for example with a
+     * keyset query, instead of skipping {@code page * pageSize} matches. See {@link CursorChoiceProvider}.
+     * <p>
+     * The default implementation ignores the cursor and delegates to {@link #query(String, int, Response)}.
+     *
+     * @param term     search term
+     * @param cursor   continuation token set with {@link Response#setCursor(String)} when the previous page was
+     *                 queried, or {@code null} when the first page is queried
+     * @param page     requested search term results page
+     * @param response aggregate for matching choices as well as other response options
+     */
+    public void query(String term, String cursor, int page, Response<T> response) {
+        query(term, page, response);
+    }
+
     /**
      * Converts the specified choice to Json.
      * <p>
@@ -79,6 +100,198 @@ public abstract class ChoiceProvider<T> implements IDetachable {
      */
     public abstract Collection<T> toChoices(Collection<String> ids);
 
+    /**
+     * Tells components whether the {@link Response} passed to {@link #query(String, int, Response)} may stream
+     * choices. A streaming response serializes each choice to the client as soon as it is added instead of collecting
+     * all of them on the heap first, which lets providers emit choices straight from a database cursor or index scan.
+     * <p>
+     * Providers that return {@code true} must only add choices to the response, using {@link Response#add(Object)},
+     * {@link Response#addAll(Collection)} or {@link Response#setResults(java.util.List)}, and must never read results
+     * back from it: {@link Response#getResults()} and {@link Response#iterator()} of a streaming response throw
+     * {@link UnsupportedOperationException}, only {@link Response#size()} is kept.
+     *
+     * @return {@code true} if the provider supports streaming responses, {@code false} by default
+     */
+    public boolean supportsStreaming() {
+        return false;
+    }
+
+    /**
+     * Tells grouping components, such as {@link Select2GroupedMultiChoice}, that this provider groups choices itself.
+     * The {@link Response} passed to {@link #query(String, int, Response)} by those components is then a
+     * {@link GroupedResponse}, and the choices are streamed into the grouped Json in a single pass if the provider also
+     * {@link #supportsStreaming() supports streaming}. Otherwise components group the choices after the query.
+     *
+     * @return {@code true} if the provider adds choices to {@link GroupedResponse}s group by group, {@code false} by
+     *         default
+     */
+    public boolean supportsGrouping() {
+        return false;
+    }
+
+    /**
+     * Tells whether query results may be serialized with a {@link com.vaynberg.wicket.select2.json.Utf8JsonWriter},
+     * which encodes Json straight into UTF-8 bytes instead of going through a character writer. The writer passed to
+     * {@link #toJson(Object, JSONWriter)} is then a {@code Utf8JsonWriter}, which produces the same output as
+     * {@link JSONWriter} but does not detect duplicate keys.
+     *
+     * @return {@code true} if query results may be written with a {@code Utf8JsonWriter}, {@code false} by default
+     */
+    public boolean supportsUtf8JsonWriter() {
+        return false;
+    }
+
+    /**
+     * Cache for the serialized Json of this provider's choices. When not {@code null} each choice is converted with
+     * {@link #toJson(Object, JSONWriter)} only once and its Json is then copied from the cache, both into query results
+     * and into the selection rendered with the component. For example:
+     *
+     * <pre>
+     * public ChoiceJsonCache getJsonCache() {
+     *     return ApplicationSettings.get().getChoiceJsonCache(&quot;countries&quot;);
+     * }
+     * </pre>
+     *
+     * @return choice Json cache or {@code null}, the default, if choices are serialized every time
+     * @see #getJsonCacheKey(Object)
+     */
+    public ChoiceJsonCache getJsonCache() {
+        return null;
+    }
+
+    /**
+     * Key under which the Json of a choice is kept in the {@link #getJsonCache() Json cache}, normally its id. Must be
+     * overridden by providers that use a Json cache unless they extend {@link TextChoiceProvider}.
+     *
+     * @param choice choice
+     * @return cache key
+     */
+    public String getJsonCacheKey(T choice) {
+        throw new UnsupportedOperationException("ChoiceProvider " + getClass().getName()
+                + " must override getJsonCacheKey() to use a Json cache");
+    }
+
+    /**
+     * Writes a choice as a Json object into an open array or object, taking it from the Json cache if there is one
+     *
+     * @param choice choice
+     * @param json   json writer
+     * @throws JSONException
+     */
+    final void writeChoice(T choice, JSONWriter json) throws JSONException {
+        ChoiceJsonCache cache = getJsonCache();
+        if (cache == null) {
+            json.object();
+            toJson(choice, json);
+            json.endObject();
+            return;
+        }
+        json.value(new JsonFunction(getCachedJson(cache, choice)));
+    }
+
+    /**
+     * Converts a choice to a standalone Json object, taking it from the Json cache if there is one
+     *
+     * @param choice choice
+     * @return Json object
+     * @throws JSONException
+     */
+    final CharSequence toChoiceJson(T choice) throws JSONException {
+        ChoiceJsonCache cache = getJsonCache();
+        if (cache != null) {
+            return getCachedJson(cache, choice);
+        }
+        JsonBuilder builder = new JsonBuilder();
+        builder.object();
+        toJson(choice, builder);
+        builder.endObject();
+        return builder.toJson();
+    }
+
+    private String getCachedJson(ChoiceJsonCache cache, T choice) throws JSONException {
+        String key = getJsonCacheKey(choice);
+        String fragment = cache.get(key);
+        Select2Metrics metrics = ApplicationSettings.metrics();
+        if (metrics != null) {
+            metrics.cacheLookup(getMetricsName(), Select2Metrics.JSON_CACHE, fragment != null);
+        }
+        if (fragment == null) {
+            JsonBuilder builder = new JsonBuilder();
+            builder.object();
+            toJson(choice, builder);
+            builder.endObject();
+            fragment = builder.toJson().toString();
+            cache.put(key, fragment);
+        }
+        return fragment;
+    }
+
+    /**
+     * Name under which this provider's queries, conversions and cache lookups are reported to the
+     * {@link ApplicationSettings#setMetrics(Select2Metrics) metrics listener}. Decorating providers report under the
+     * name of the provider they wrap.
+     *
+     * @return metrics name, the class name by default
+     */
+    public String getMetricsName() {
+        return getClass().getName();
+    }
+
+    /**
+     * Number of seconds browsers and proxies may reuse query results without asking the server again. Query urls
+     * contain the search term and page, so each combination is cached separately.
+     *
+     * @return max-age in seconds, {@code 0} by default which means query results are not cached
+     * @see #getVersion()
+     */
+    public int getCacheMaxAge() {
+        return 0;
+    }
+
+    /**
+     * Tells whether query results are the same for all users, in which case shared caches such as reverse proxies
+     * may keep them. Only used when {@link #getCacheMaxAge()} or {@link #getVersion()} enable caching.
+     *
+     * @return {@code true} if query results may be cached by shared caches, {@code false} by default
+     */
+    public boolean isCachePublic() {
+        return false;
+    }
+
+    /**
+     * Version of the provider's data, which should change whenever query results may change. When not {@code null}
+     * the version is sent as the {@code ETag} of query results, and conditional requests for a still current version
+     * are answered with {@code 304 Not Modified} without running the query.
+     *
+     * @return data version or {@code null}, the default, if the provider does not track versions
+     */
+    public String getVersion() {
+        return null;
+    }
+
+    /**
+     * Tells components whether they may convert their ids together with all other components in the same form that
+     * use this provider instance. When a form is submitted the first such component to convert its input resolves
+     * the ids of all of them with a single {@link #toChoiceMap(Collection)} call.
+     *
+     * @return {@code true} if the provider supports {@link #toChoiceMap(Collection)}, {@code false} by default
+     */
+    public boolean supportsBatching() {
+        return false;
+    }
+
+    /**
+     * Converts choice ids back into application's choice objects, keyed by the id they were converted from. Ids that
+     * do not identify a choice are left out. Only called if {@link #supportsBatching()} returns {@code true}.
+     *
+     * @param ids choice ids, possibly belonging to several components
+     * @return map of choice id to choice object
+     */
+    public Map<String, T> toChoiceMap(Collection<String> ids) {
+        throw new UnsupportedOperationException("ChoiceProvider " + getClass().getName()
+                + " does not support batching");
+    }
+
     @Override
     public void detach() {}
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.json.JSONException;
+import org.json.JSONWriter;
+
+/**
+ * A {@link ChoiceProvider} decorator that lets concurrent identical queries (same term, page and cursor) share a single
+ * execution of the wrapped provider's query. Queries are coalesced across all components using a provider with the
+ * same coalescer name, see {@link ApplicationSettings#getQueryCoalescer(String)}.
+ * <p>
+ * Results are not retained once the shared execution completes. To also keep them, wrap this provider in a
+ * {@link CachingChoiceProvider}:
+ *
+ * <pre>
+ * new CachingChoiceProvider&lt;Country&gt;(new CoalescingChoiceProvider&lt;Country&gt;(new CountriesProvider(),
+ *         &quot;countries&quot;), &quot;countries&quot;);
+ * </pre>
+ *
+ * @param <T> type of choice object
+ */
+public class CoalescingChoiceProvider<T> extends ChoiceProvider<T> {
+
+    private final ChoiceProvider<T> delegate;
+    private final String coalescerName;
+
+    /**
+     * Constructor
+     *
+     * @param delegate      provider whose queries will be coalesced
+     * @param coalescerName name of the application-wide coalescer to use
+     */
+    public CoalescingChoiceProvider(ChoiceProvider<T> delegate, String coalescerName) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Argument 'delegate' cannot be null");
+        }
+        if (coalescerName == null) {
+            throw new IllegalArgumentException("Argument 'coalescerName' cannot be null");
+        }
+        this.delegate = delegate;
+        this.coalescerName = coalescerName;
+    }
+
+    @Override
+    public void query(String term, int page, Response<T> response) {
+        query(term, null, page, response);
+    }
+
+    @Override
+    public void query(final String term, final String cursor, final int page, Response<T> response) {
+        final int groupLimit = response instanceof GroupedResponse && delegate.supportsGrouping()
+                ? ((GroupedResponse<T>) response).getGroupLimit() : -1;
+        String key = (groupLimit >= 0 ? "g" + groupLimit + ":" : "") + page + ":"
+                + (cursor == null ? "" : cursor.length() + ":" + cursor) + ":" + (term == null ? "" : term);
+
+        CachedResponse<T> shared = getCoalescer().execute(key, new Callable<CachedResponse<T>>() {
+            @Override
+            public CachedResponse<T> call() throws Exception {
+                Response<T> fresh = groupLimit >= 0 ? new GroupedResponse<T>(groupLimit) : new Response<T>();
+                delegate.query(term, cursor, page, fresh);
+                return CachedResponse.of(fresh, null, System.currentTimeMillis());
+            }
+        });
+
+        shared.copyTo(response);
+    }
+
+    @Override
+    public void toJson(T choice, JSONWriter writer) throws JSONException {
+        delegate.toJson(choice, writer);
+    }
+
+    @Override
+    public Collection<T> toChoices(Collection<String> ids) {
+        return delegate.toChoices(ids);
+    }
+
+    @Override
+    public boolean supportsBatching() {
+        return delegate.supportsBatching();
+    }
+
+    @Override
+    public Map<String, T> toChoiceMap(Collection<String> ids) {
+        return delegate.toChoiceMap(ids);
+    }
+
+    @Override
+    public boolean supportsGrouping() {
+        return delegate.supportsGrouping();
+    }
+
+    @Override
+    public boolean supportsUtf8JsonWriter() {
+        return delegate.supportsUtf8JsonWriter();
+    }
+
+    @Override
+    public ChoiceJsonCache getJsonCache() {
+        return delegate.getJsonCache();
+    }
+
+    @Override
+    public String getMetricsName() {
+        return delegate.getMetricsName();
+    }
+
+    @Override
+    public String getJsonCacheKey(T choice) {
+        return delegate.getJsonCacheKey(choice);
+    }
+
+    @Override
+    public boolean supportsStreaming() {
+        return delegate.supportsStreaming();
+    }
+
+    @Override
+    public int getCacheMaxAge() {
+        return delegate.getCacheMaxAge();
+    }
+
+    @Override
+    public boolean isCachePublic() {
+        return delegate.isCachePublic();
+    }
+
+    @Override
+    public String getVersion() {
+        return delegate.getVersion();
+    }
+
+    /**
+     * @return the wrapped provider
+     */
+    public final ChoiceProvider<T> getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return the coalescer used by this provider
+     */
+    public QueryCoalescer<T> getCoalescer() {
+        return ApplicationSettings.get().getQueryCoalescer(coalescerName);
+    }
+
+    @Override
+    public void detach() {
+        delegate.detach();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.wicket.request.http.WebRequest;
+import org.apache.wicket.request.http.WebResponse;
+
+/**
+ * Output stream that gzips the response once its size reaches a threshold. Data is held back only until the threshold
+ * is reached, after that it is compressed straight into the response. Responses smaller than the threshold are
+ * written uncompressed when the stream is {@link #finish() finished}. The buffer holding data back grows with the
+ * data, so small responses do not allocate a buffer as large as the threshold.
+ */
+class CompressingOutputStream extends OutputStream {
+
+    private static final int INITIAL_BUFFER_SIZE = 512;
+
+    private final WebResponse response;
+    private final int threshold;
+    private byte[] pending;
+    private int count;
+    private GZIPOutputStream gzip;
+
+    /**
+     * Constructor
+     *
+     * @param response  response to write to
+     * @param threshold number of bytes after which the response is compressed
+     */
+    CompressingOutputStream(WebResponse response, int threshold) {
+        this.response = response;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Checks whether the client accepts gzip encoded responses
+     *
+     * @param request request
+     * @return {@code true} if the response may be gzipped
+     */
+    static boolean acceptsGzip(WebRequest request) {
+        String header = request.getHeader("Accept-Encoding");
+        if (header == null) {
+            return false;
+        }
+        for (String coding : header.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim().replace(" ", "");
+                    if (param.startsWith("q=") && isZero(param.substring(2))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isZero(String qvalue) {
+        try {
+            return Double.parseDouble(qvalue) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (gzip == null && count == threshold) {
+            startCompressing();
+        }
+        if (gzip != null) {
+            gzip.write(b);
+        } else {
+            ensure(1);
+            pending[count++] = (byte) b;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (gzip == null && count + len > threshold) {
+            startCompressing();
+        }
+        if (gzip != null) {
+            gzip.write(b, off, len);
+        } else {
+            ensure(len);
+            System.arraycopy(b, off, pending, count, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Held back data is only flushed once the stream is finished or the threshold is reached
+     */
+    @Override
+    public void flush() throws IOException {
+        if (gzip != null) {
+            gzip.flush();
+        }
+    }
+
+    /**
+     * Writes out any held back data and completes the compressed stream, if any. The underlying response stream is
+     * not closed.
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if (gzip == null) {
+            if (count > 0) {
+                response.getOutputStream().write(pending, 0, count);
+                count = 0;
+            }
+        } else {
+            gzip.finish();
+        }
+        response.getOutputStream().flush();
+    }
+
+    private void startCompressing() throws IOException {
+        response.setHeader("Content-Encoding", "gzip");
+        gzip = new GZIPOutputStream(response.getOutputStream(), 8192, true);
+        if (count > 0) {
+            gzip.write(pending, 0, count);
+            count = 0;
+        }
+        pending = null;
+    }
+
+    /**
+     * Grows the buffer so it can hold {@code bytes} more bytes, which never takes it beyond the threshold
+     */
+    private void ensure(int bytes) {
+        int size = count + bytes;
+        if (pending == null || size > pending.length) {
+            int length = pending == null ? Math.min(threshold, INITIAL_BUFFER_SIZE) : pending.length;
+            while (length < size) {
+                length = Math.min(threshold, length * 2);
+            }
+            byte[] grown = new byte[length];
+            if (count > 0) {
+                System.arraycopy(pending, 0, grown, 0, count);
+            }
+            pending = grown;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+/**
+ * Base class for providers that page through their choices with a continuation token rather than a page offset. Each
+ * query sets the token identifying where the next page starts, typically the sort key of the last choice returned:
+ *
+ * <pre>
+ * public void query(String term, String cursor, int page, Response&lt;Country&gt; response) {
+ *     List&lt;Country&gt; countries = dao.findAfter(term, cursor, PAGE_SIZE + 1);
+ *     response.setHasMore(countries.size() &gt; PAGE_SIZE);
+ *     response.addAll(countries.subList(0, Math.min(countries.size(), PAGE_SIZE)));
+ *     if (!countries.isEmpty()) {
+ *         response.setCursor(countries.get(response.size() - 1).getName());
+ *     }
+ * }
+ * </pre>
+ *
+ * Select2 hands the token back when the user scrolls to the next page, so the query can seek straight to it instead
+ * of skipping over all previously shown matches.
+ *
+ * @param <T> type of choice object
+ */
+public abstract class CursorChoiceProvider<T> extends ChoiceProvider<T> {
+
+    /**
+     * Delegates to {@link #query(String, String, int, Response)} without a cursor
+     */
+    @Override
+    public final void query(String term, int page, Response<T> response) {
+        query(term, null, page, response);
+    }
+
+    /**
+     * Queries application for choices that match the search {@code term}, starting after the {@code cursor}.
+     *
+     * @param term     search term
+     * @param cursor   continuation token set on the response to the previous page, or {@code null} for the first page
+     * @param page     requested search term results page
+     * @param response aggregate for matching choices as well as other response options
+     */
+    @Override
+    public abstract void query(String term, String cursor, int page, Response<T> response);
+}
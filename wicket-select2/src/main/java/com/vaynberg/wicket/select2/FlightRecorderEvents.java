@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import org.apache.wicket.Component;
+
+/**
+ * Java Flight Recorder events of Select2 components. Only loaded by {@link Select2Events} once it has checked that the
+ * JRE supports JFR.
+ * <p>
+ * The events are disabled unless the recording settings enable them, for example with
+ * {@code jcmd <pid> JFR.start settings=profile +com.vaynberg.wicket.select2.Query#enabled=true}, or in a custom
+ * {@code .jfc} file.
+ */
+final class FlightRecorderEvents {
+
+    private FlightRecorderEvents() {}
+
+    static Object beginQuery() {
+        QueryEvent event = new QueryEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endQuery(Object started, Component component, String provider, String term, int page, int results,
+            long bytes) {
+        QueryEvent event = (QueryEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.component = component == null ? null : component.getPageRelativePath();
+            event.provider = provider;
+            event.termLength = term == null ? 0 : term.length();
+            event.page = page;
+            event.results = results;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    static Object beginConversion() {
+        ConversionEvent event = new ConversionEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endConversion(Object started, Component component, String provider, int ids) {
+        ConversionEvent event = (ConversionEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.component = component.getPageRelativePath();
+            event.provider = provider;
+            event.ids = ids;
+            event.commit();
+        }
+    }
+
+    static Object beginRender() {
+        RenderEvent event = new RenderEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endRender(Object started, Component component) {
+        RenderEvent event = (RenderEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.component = component.getPageRelativePath();
+            event.componentClass = component.getClass().getName();
+            event.commit();
+        }
+    }
+
+    @Name("com.vaynberg.wicket.select2.Query")
+    @Label("Select2 Query")
+    @Category({"Wicket", "Select2"})
+    @Description("Choices retrieved from a provider and written out as Json")
+    static class QueryEvent extends Event {
+        @Label("Component")
+        @Description("Page relative path of the component, empty for queries of shared providers")
+        String component;
+
+        @Label("Provider")
+        String provider;
+
+        @Label("Term Length")
+        int termLength;
+
+        @Label("Page")
+        int page;
+
+        @Label("Results")
+        int results;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("com.vaynberg.wicket.select2.Conversion")
+    @Label("Select2 Input Conversion")
+    @Category({"Wicket", "Select2"})
+    @Description("Submitted choice ids converted to choices")
+    static class ConversionEvent extends Event {
+        @Label("Component")
+        String component;
+
+        @Label("Provider")
+        String provider;
+
+        @Label("Ids")
+        int ids;
+    }
+
+    @Name("com.vaynberg.wicket.select2.Render")
+    @Label("Select2 Initialization Script")
+    @Category({"Wicket", "Select2"})
+    @Description("Initialization script of a component rendered, including the conversion of its current selection")
+    static class RenderEvent extends Event {
+        @Label("Component")
+        String component;
+
+        @Label("Component Class")
+        String componentClass;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response of providers that group choices themselves, see {@link ChoiceProvider#supportsGrouping()}. The provider
+ * calls {@link #startGroup(String)} before adding the choices of each group, groups are shown in the order they are
+ * started. Choices added before the first group, or after starting a group without a name, are not grouped.
+ * <p>
+ * Paging is per group: a page contains at most {@link #getGroupLimit()} choices of each group, so page {@code n}
+ * contains choices {@code n * limit} up to {@code (n + 1) * limit} of every group that has that many. Groups with
+ * choices left are marked with {@link #setGroupHasMore(boolean)}, which also tells Select2 to load the next page once
+ * the user scrolls to the end. Groups continued on the next page are shown again under their name.
+ *
+ * <pre>
+ * public void query(String term, int page, Response&lt;Employee&gt; response) {
+ *     GroupedResponse&lt;Employee&gt; grouped = (GroupedResponse&lt;Employee&gt;) response;
+ *     int limit = grouped.getGroupLimit();
+ *     for (Department department : departments) {
+ *         List&lt;Employee&gt; employees = department.findEmployees(term, page * limit, limit + 1);
+ *         if (!employees.isEmpty()) {
+ *             grouped.startGroup(department.getName());
+ *             grouped.addAll(employees.subList(0, Math.min(limit, employees.size())));
+ *             grouped.setGroupHasMore(employees.size() &gt; limit);
+ *         }
+ *     }
+ * }
+ * </pre>
+ *
+ * @param <T> type of choice object
+ */
+public class GroupedResponse<T> extends Response<T> {
+
+    private final int groupLimit;
+
+    /** Started groups, the first one holds the choices added before any group is started */
+    private final List<Group> groups = new ArrayList<Group>();
+
+    /**
+     * Constructs a response without a limit on the number of choices per group
+     */
+    public GroupedResponse() {
+        this(0);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param groupLimit maximum number of choices per group and page, {@code 0} for no limit
+     */
+    public GroupedResponse(int groupLimit) {
+        if (groupLimit < 0) {
+            throw new IllegalArgumentException("Argument 'groupLimit' cannot be negative");
+        }
+        this.groupLimit = groupLimit;
+        groups.add(new Group(null, 0));
+    }
+
+    /**
+     * @return maximum number of choices per group and page, {@code 0} if there is no limit
+     */
+    public final int getGroupLimit() {
+        return groupLimit;
+    }
+
+    /**
+     * Starts a group, choices added from now on belong to it
+     *
+     * @param group group name, {@code null} or empty for choices that are not grouped
+     * @return {@code this} for chaining
+     */
+    public GroupedResponse<T> startGroup(String group) {
+        groups.add(new Group(group, size()));
+        return this;
+    }
+
+    /**
+     * Tells whether the current group has more choices than were added to this page. Setting it to {@code true} also
+     * sets {@link #setHasMore(Boolean) more} for the whole response.
+     *
+     * @param more {@code true} if the group has more choices
+     * @return {@code this} for chaining
+     */
+    public GroupedResponse<T> setGroupHasMore(boolean more) {
+        groups.get(groups.size() - 1).more = more;
+        if (more) {
+            setHasMore(true);
+        }
+        return this;
+    }
+
+    /**
+     * Replaces all choices, they are not grouped
+     */
+    @Override
+    public Response<T> setResults(List<T> results) {
+        groups.clear();
+        groups.add(new Group(null, 0));
+        return super.setResults(results);
+    }
+
+    /**
+     * @return number of groups, including the leading ungrouped choices
+     */
+    int getGroupCount() {
+        return groups.size();
+    }
+
+    /**
+     * @param index group index
+     * @return group name, {@code null} or empty if the choices are not grouped
+     */
+    String getGroupName(int index) {
+        return groups.get(index).name;
+    }
+
+    /**
+     * @param index group index
+     * @return choices of the group
+     */
+    List<T> getGroupChoices(int index) {
+        int end = index + 1 < groups.size() ? groups.get(index + 1).start : size();
+        return getResults().subList(groups.get(index).start, end);
+    }
+
+    /**
+     * @param index group index
+     * @return {@code true} if the group has more choices
+     */
+    boolean getGroupHasMore(int index) {
+        return groups.get(index).more;
+    }
+
+    /**
+     * Groups choices by {@link GroupedValue#getGroup()} in a single pass. Groups are ordered by their first choice and
+     * choices keep their order within a group. Choices that are not {@link GroupedValue}s are not grouped.
+     *
+     * @param choices choices
+     * @return grouped choices
+     */
+    static <T> GroupedResponse<T> group(Iterable<T> choices) {
+        Map<String, List<T>> grouped = new LinkedHashMap<String, List<T>>();
+        for (T choice : choices) {
+            String group = choice instanceof GroupedValue ? ((GroupedValue) choice).getGroup() : null;
+            String key = group == null ? "" : group;
+            List<T> list = grouped.get(key);
+            if (list == null) {
+                list = new ArrayList<T>();
+                grouped.put(key, list);
+            }
+            list.add(choice);
+        }
+
+        GroupedResponse<T> response = new GroupedResponse<T>();
+        for (Map.Entry<String, List<T>> entry : grouped.entrySet()) {
+            response.startGroup(entry.getKey());
+            response.addAll(entry.getValue());
+        }
+        return response;
+    }
+
+    private static final class Group {
+        final String name;
+        final int start;
+        boolean more;
+
+        Group(String name, int start) {
+            this.name = name;
+            this.start = start;
+        }
+    }
+}
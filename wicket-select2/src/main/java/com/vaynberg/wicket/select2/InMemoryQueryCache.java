@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link QueryCache} that keeps results on the heap. The number of entries is bounded and the least recently used
+ * entries are evicted first. Entries older than the time-to-live are treated as missing.
+ *
+ * @param <T> type of choice object
+ */
+public class InMemoryQueryCache<T> implements QueryCache<T> {
+
+    /** Default maximum number of entries */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /** Default time-to-live: 5 minutes */
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000L;
+
+    private final long ttlMillis;
+    private final Map<String, CachedResponse<T>> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructs a cache with {@link #DEFAULT_MAX_ENTRIES} and {@link #DEFAULT_TTL_MILLIS}
+     */
+    public InMemoryQueryCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxEntries maximum number of entries kept
+     * @param ttlMillis  time-to-live of entries in milliseconds, {@code 0} or less to never expire entries
+     */
+    public InMemoryQueryCache(final int maxEntries, long ttlMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be greater than zero");
+        }
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, CachedResponse<T>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse<T>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public CachedResponse<T> get(String key) {
+        CachedResponse<T> response;
+        synchronized (entries) {
+            response = entries.get(key);
+            if (response != null && isExpired(response)) {
+                entries.remove(key);
+                response = null;
+            }
+        }
+        (response == null ? misses : hits).incrementAndGet();
+        return response;
+    }
+
+    @Override
+    public void put(String key, CachedResponse<T> response) {
+        synchronized (entries) {
+            entries.put(key, response);
+        }
+    }
+
+    @Override
+    public void invalidate(String id) {
+        synchronized (entries) {
+            for (Iterator<CachedResponse<T>> it = entries.values().iterator(); it.hasNext(); ) {
+                if (it.next().mayContain(id)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return number of entries currently held, including expired entries that have not been evicted yet
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return current time in milliseconds, used to compute entry expiration
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    private boolean isExpired(CachedResponse<T> response) {
+        return ttlMillis > 0 && now() - response.getCreated() >= ttlMillis;
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A {@link TextChoiceProvider} over a fixed set of choices that answers case-insensitive substring queries from an
+ * n-gram index of the choices' display texts, so query time depends on the number of matches rather than on the
+ * number of choices.
+ * <p>
+ * Every substring of one to three characters of each display text is mapped to the ordered positions of the choices
+ * containing it. Terms of up to three characters are answered straight from their position list, longer terms by
+ * intersecting the lists of their trigrams and checking the remaining candidates. Matches are returned in the order
+ * of the collection passed to the constructor. Each page ends with a cursor, so loading more results resumes right
+ * after the last match instead of skipping over the previous pages.
+ * <p>
+ * The index is built when the provider is first queried and is not serialized. Large choice sets should be shared
+ * with {@link ApplicationSettings#registerProvider(String, ChoiceProvider)} so that neither the choices nor the index
+ * are kept with each page.
+ *
+ * @param <T> type of choice object
+ */
+public abstract class IndexedChoiceProvider<T> extends TextChoiceProvider<T> {
+
+    private static final int GRAM_LENGTH = 3;
+
+    private final List<T> choices;
+    private final int pageSize;
+    private transient volatile Index<T> index;
+
+    /**
+     * Constructor using pages of 10 choices
+     *
+     * @param choices choices in the order they are to be returned
+     */
+    public IndexedChoiceProvider(Collection<? extends T> choices) {
+        this(choices, 10);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param choices  choices in the order they are to be returned
+     * @param pageSize number of choices per page
+     */
+    public IndexedChoiceProvider(Collection<? extends T> choices, int pageSize) {
+        if (choices == null) {
+            throw new IllegalArgumentException("Argument 'choices' cannot be null");
+        }
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Argument 'pageSize' must be positive");
+        }
+        this.choices = Collections.unmodifiableList(new ArrayList<T>(choices));
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public void query(String term, int page, Response<T> response) {
+        query(term, null, page, response);
+    }
+
+    @Override
+    public void query(String term, String cursor, int page, Response<T> response) {
+        Index<T> index = getIndex();
+        String normalized = term == null ? "" : normalize(term);
+
+        int from = 0;
+        int skip = page * pageSize;
+        if (cursor != null) {
+            try {
+                from = Integer.parseInt(cursor) + 1;
+                skip = 0;
+            } catch (NumberFormatException e) {
+                // not one of ours, fall back to the page offset
+            }
+        }
+
+        int[] candidates = null;
+        boolean verify = false;
+        int[][] others = null;
+
+        if (normalized.length() > GRAM_LENGTH) {
+            List<int[]> postings = new ArrayList<int[]>();
+            for (int i = 0; i + GRAM_LENGTH <= normalized.length(); i++) {
+                int[] posting = index.postings.get(normalized.substring(i, i + GRAM_LENGTH));
+                if (posting == null) {
+                    response.setHasMore(false);
+                    return;
+                }
+                postings.add(posting);
+            }
+            // walk the rarest trigram and probe the others
+            int rarest = 0;
+            for (int i = 1; i < postings.size(); i++) {
+                if (postings.get(i).length < postings.get(rarest).length) {
+                    rarest = i;
+                }
+            }
+            candidates = postings.remove(rarest);
+            others = postings.toArray(new int[postings.size()][]);
+            verify = true;
+        } else if (normalized.length() > 0) {
+            candidates = index.postings.get(normalized);
+            if (candidates == null) {
+                response.setHasMore(false);
+                return;
+            }
+        }
+
+        int end = candidates == null ? choices.size() : candidates.length;
+        int i = candidates == null ? from : lowerBound(candidates, from);
+        if (!verify) {
+            // every candidate matches, jump straight to the page
+            i += skip;
+            skip = 0;
+        }
+
+        int count = 0;
+        int last = -1;
+        boolean more = false;
+        for (; i < end; i++) {
+            int position = candidates == null ? i : candidates[i];
+            if (verify && !matches(index, others, position, normalized)) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            if (count == pageSize) {
+                more = true;
+                break;
+            }
+            response.add(choices.get(position));
+            last = position;
+            count++;
+        }
+
+        response.setHasMore(more);
+        if (more) {
+            response.setCursor(Integer.toString(last));
+        }
+    }
+
+    private static boolean matches(Index<?> index, int[][] others, int position, String normalized) {
+        for (int[] posting : others) {
+            if (Arrays.binarySearch(posting, position) < 0) {
+                return false;
+            }
+        }
+        // all trigrams present, make sure they appear in sequence
+        return index.texts[position].contains(normalized);
+    }
+
+    private static int lowerBound(int[] sorted, int value) {
+        int index = Arrays.binarySearch(sorted, value);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    @Override
+    public Collection<T> toChoices(Collection<String> ids) {
+        Map<String, T> byId = getIndex().byId;
+        List<T> result = new ArrayList<T>(ids.size());
+        for (String id : ids) {
+            T choice = byId.get(id);
+            if (choice != null) {
+                result.add(choice);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean supportsBatching() {
+        return true;
+    }
+
+    @Override
+    public Map<String, T> toChoiceMap(Collection<String> ids) {
+        Map<String, T> byId = getIndex().byId;
+        Map<String, T> result = new HashMap<String, T>();
+        for (String id : ids) {
+            T choice = byId.get(id);
+            if (choice != null) {
+                result.put(id, choice);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean supportsStreaming() {
+        // the response passed to query() is only ever appended to
+        return true;
+    }
+
+    @Override
+    public boolean supportsUtf8JsonWriter() {
+        // toJson() is final and only writes an id and a text
+        return true;
+    }
+
+    /**
+     * Normalizes display texts and search terms before they are indexed or looked up. By default matching is case
+     * insensitive.
+     *
+     * @param text display text or search term
+     * @return normalized text
+     */
+    protected String normalize(String text) {
+        return text.toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * @return unmodifiable list of all choices
+     */
+    public final List<T> getChoices() {
+        return choices;
+    }
+
+    /**
+     * @return number of choices per page
+     */
+    public final int getPageSize() {
+        return pageSize;
+    }
+
+    private Index<T> getIndex() {
+        Index<T> result = index;
+        if (result == null) {
+            synchronized (this) {
+                result = index;
+                if (result == null) {
+                    index = result = buildIndex();
+                }
+            }
+        }
+        return result;
+    }
+
+    private Index<T> buildIndex() {
+        String[] texts = new String[choices.size()];
+        Map<String, T> byId = new HashMap<String, T>();
+        Map<String, IntList> lists = new HashMap<String, IntList>();
+
+        for (int position = 0; position < texts.length; position++) {
+            T choice = choices.get(position);
+            String text = normalize(getDisplayText(choice));
+            texts[position] = text;
+            byId.put(String.valueOf(getId(choice)), choice);
+
+            for (int length = 1; length <= GRAM_LENGTH; length++) {
+                for (int i = 0; i + length <= text.length(); i++) {
+                    String gram = text.substring(i, i + length);
+                    IntList list = lists.get(gram);
+                    if (list == null) {
+                        list = new IntList();
+                        lists.put(gram, list);
+                    }
+                    list.addOnce(position);
+                }
+            }
+        }
+
+        Map<String, int[]> postings = new HashMap<String, int[]>(lists.size() * 4 / 3 + 1);
+        for (Map.Entry<String, IntList> entry : lists.entrySet()) {
+            postings.put(entry.getKey(), entry.getValue().toArray());
+        }
+        return new Index<T>(texts, postings, byId);
+    }
+
+    private static final class Index<T> {
+        final String[] texts;
+        final Map<String, int[]> postings;
+        final Map<String, T> byId;
+
+        Index(String[] texts, Map<String, int[]> postings, Map<String, T> byId) {
+            this.texts = texts;
+            this.postings = postings;
+            this.byId = byId;
+        }
+    }
+
+    /**
+     * Growable list of ascending choice positions
+     */
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void addOnce(int value) {
+            if (size > 0 && values[size - 1] == value) {
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Select2Metrics} that publishes the metrics of each provider as a {@link Select2ProviderMetricsMBean} named
+ * {@code com.vaynberg.wicket.select2:type=ChoiceProvider,application="<application>",name="<provider>"}. Beans are
+ * registered when a provider is first reported and should be unregistered when the application shuts down. If a bean
+ * cannot be registered the failure is logged and the provider's metrics are collected without being published.
+ *
+ * <pre>
+ * // in Application#init()
+ * metrics = new JmxSelect2Metrics(getName());
+ * ApplicationSettings.get().setMetrics(metrics);
+ *
+ * // in Application#onDestroy()
+ * metrics.unregister();
+ * </pre>
+ */
+public class JmxSelect2Metrics implements Select2Metrics {
+
+    /** JMX domain of the registered beans */
+    public static final String DOMAIN = "com.vaynberg.wicket.select2";
+
+    private static final Logger log = LoggerFactory.getLogger(JmxSelect2Metrics.class);
+
+    private final MBeanServer server;
+    private final String application;
+    private final ConcurrentMap<String, ProviderMetrics> providers = new ConcurrentHashMap<String, ProviderMetrics>();
+
+    /**
+     * Constructs metrics registered with the platform MBean server
+     *
+     * @param application application name, distinguishes the beans of several applications in the same JVM
+     */
+    public JmxSelect2Metrics(String application) {
+        this(ManagementFactory.getPlatformMBeanServer(), application);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param server      server the beans are registered with
+     * @param application application name, distinguishes the beans of several applications in the same JVM
+     */
+    public JmxSelect2Metrics(MBeanServer server, String application) {
+        if (server == null) {
+            throw new IllegalArgumentException("Argument 'server' cannot be null");
+        }
+        if (application == null) {
+            throw new IllegalArgumentException("Argument 'application' cannot be null");
+        }
+        this.server = server;
+        this.application = application;
+    }
+
+    @Override
+    public void queryCompleted(String provider, long queryNanos, long serializationNanos, int results, boolean more,
+            long bytes) {
+        ProviderMetrics metrics = getProviderMetrics(provider);
+        metrics.queries.incrementAndGet();
+        if (more) {
+            metrics.more.incrementAndGet();
+        }
+        metrics.results.addAndGet(results);
+        metrics.bytes.addAndGet(bytes);
+        metrics.query.record(queryNanos);
+        metrics.serialization.record(serializationNanos);
+    }
+
+    @Override
+    public void inputConverted(String provider, long nanos, int ids) {
+        ProviderMetrics metrics = getProviderMetrics(provider);
+        metrics.conversions.incrementAndGet();
+        metrics.ids.addAndGet(ids);
+        metrics.conversion.record(nanos);
+    }
+
+    @Override
+    public void cacheLookup(String provider, String cache, boolean hit) {
+        ProviderMetrics metrics = getProviderMetrics(provider);
+        if (QUERY_CACHE.equals(cache)) {
+            metrics.queryCacheLookups.incrementAndGet();
+            if (hit) {
+                metrics.queryCacheHits.incrementAndGet();
+            }
+        } else if (JSON_CACHE.equals(cache)) {
+            metrics.jsonCacheLookups.incrementAndGet();
+            if (hit) {
+                metrics.jsonCacheHits.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param provider provider name
+     * @return name of the bean holding the provider's metrics
+     */
+    public ObjectName getObjectName(String provider) {
+        try {
+            return new ObjectName(DOMAIN + ":type=ChoiceProvider,application=" + ObjectName.quote(application)
+                    + ",name=" + ObjectName.quote(provider));
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException("Could not build object name for provider: " + provider, e);
+        }
+    }
+
+    /**
+     * Unregisters the beans of all providers reported so far
+     */
+    public void unregister() {
+        for (String provider : providers.keySet()) {
+            try {
+                ObjectName name = getObjectName(provider);
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                throw new RuntimeException("Could not unregister metrics of provider: " + provider, e);
+            }
+        }
+        providers.clear();
+    }
+
+    private ProviderMetrics getProviderMetrics(String provider) {
+        ProviderMetrics metrics = providers.get(provider);
+        if (metrics == null) {
+            ProviderMetrics created = new ProviderMetrics();
+            metrics = providers.putIfAbsent(provider, created);
+            if (metrics == null) {
+                metrics = created;
+                register(provider, created);
+            }
+        }
+        return metrics;
+    }
+
+    private void register(String provider, ProviderMetrics metrics) {
+        ObjectName name = getObjectName(provider);
+        try {
+            if (server.isRegistered(name)) {
+                // left over from an earlier instance of the application that was not unregistered
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new StandardMBean(metrics, Select2ProviderMetricsMBean.class), name);
+        } catch (JMException | RuntimeException e) {
+            // metrics must not fail the query or conversion that reports them
+            log.warn("Could not register metrics of provider: " + provider + ", they are not published", e);
+        }
+    }
+
+    private static double ratio(AtomicLong part, AtomicLong total) {
+        long count = total.get();
+        return count == 0 ? 0 : (double) part.get() / count;
+    }
+
+    private static final class ProviderMetrics implements Select2ProviderMetricsMBean {
+        final AtomicLong queries = new AtomicLong();
+        final AtomicLong more = new AtomicLong();
+        final AtomicLong results = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong conversions = new AtomicLong();
+        final AtomicLong ids = new AtomicLong();
+        final AtomicLong queryCacheLookups = new AtomicLong();
+        final AtomicLong queryCacheHits = new AtomicLong();
+        final AtomicLong jsonCacheLookups = new AtomicLong();
+        final AtomicLong jsonCacheHits = new AtomicLong();
+        final LatencyHistogram query = new LatencyHistogram();
+        final LatencyHistogram serialization = new LatencyHistogram();
+        final LatencyHistogram conversion = new LatencyHistogram();
+
+        @Override
+        public long getQueryCount() {
+            return queries.get();
+        }
+
+        @Override
+        public double getHasMoreRatio() {
+            return ratio(more, queries);
+        }
+
+        @Override
+        public double getMeanResultCount() {
+            return ratio(results, queries);
+        }
+
+        @Override
+        public long getResponseBytes() {
+            return bytes.get();
+        }
+
+        @Override
+        public double getMeanResponseBytes() {
+            return ratio(bytes, queries);
+        }
+
+        @Override
+        public double getQueryMillisP50() {
+            return query.getPercentileMillis(0.5);
+        }
+
+        @Override
+        public double getQueryMillisP95() {
+            return query.getPercentileMillis(0.95);
+        }
+
+        @Override
+        public double getQueryMillisP99() {
+            return query.getPercentileMillis(0.99);
+        }
+
+        @Override
+        public double getQueryMillisMax() {
+            return query.getMaxMillis();
+        }
+
+        @Override
+        public double getSerializationMillisP50() {
+            return serialization.getPercentileMillis(0.5);
+        }
+
+        @Override
+        public double getSerializationMillisP95() {
+            return serialization.getPercentileMillis(0.95);
+        }
+
+        @Override
+        public double getSerializationMillisP99() {
+            return serialization.getPercentileMillis(0.99);
+        }
+
+        @Override
+        public long getConversionCount() {
+            return conversions.get();
+        }
+
+        @Override
+        public long getConvertedIds() {
+            return ids.get();
+        }
+
+        @Override
+        public double getConversionMillisP50() {
+            return conversion.getPercentileMillis(0.5);
+        }
+
+        @Override
+        public double getConversionMillisP99() {
+            return conversion.getPercentileMillis(0.99);
+        }
+
+        @Override
+        public double getQueryCacheHitRatio() {
+            return ratio(queryCacheHits, queryCacheLookups);
+        }
+
+        @Override
+        public double getJsonCacheHitRatio() {
+            return ratio(jsonCacheHits, jsonCacheLookups);
+        }
+
+        @Override
+        public void reset() {
+            for (AtomicLong counter : new AtomicLong[] {queries, more, results, bytes, conversions, ids,
+                    queryCacheLookups, queryCacheHits, jsonCacheLookups, jsonCacheHits}) {
+                counter.set(0);
+            }
+            query.reset();
+            serialization.reset();
+            conversion.reset();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations with power of two microsecond buckets. Percentiles are estimated by the upper
+ * bound of the bucket they fall in, so they are at most twice the actual value, and never exceed the longest duration
+ * recorded.
+ */
+final class LatencyHistogram {
+
+    /** bucket {@code i} counts durations shorter than 2^i microseconds, the last one also counts all longer ones */
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos duration in nanoseconds
+     */
+    void record(long nanos) {
+        long micros = Math.max(nanos, 0) / 1000;
+        counts.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1));
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return number of recorded durations
+     */
+    long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return longest recorded duration in milliseconds
+     */
+    double getMaxMillis() {
+        return max.get() / 1000000d;
+    }
+
+    /**
+     * @param quantile quantile between {@code 0} and {@code 1}, e.g. {@code 0.99}
+     * @return estimated duration in milliseconds below which the quantile of recorded durations falls, {@code 0} if
+     *         nothing was recorded
+     */
+    double getPercentileMillis(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max((long) Math.ceil(quantile * count), 1);
+        long seen = 0;
+        int bucket = 0;
+        while (bucket < BUCKETS - 1) {
+            seen += snapshot[bucket];
+            if (seen >= rank) {
+                break;
+            }
+            bucket++;
+        }
+        return Math.min((1L << bucket) / 1000d, getMaxMillis());
+    }
+
+    /**
+     * Discards all recorded durations
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        max.set(0);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+/**
+ * Storage used by {@link CachingChoiceProvider} to keep query results. Implementations are shared application-wide
+ * and must be thread-safe. Instances are registered with {@link ApplicationSettings#setQueryCache(String, QueryCache)}.
+ * <p>
+ * {@link InMemoryQueryCache} is the default implementation.
+ *
+ * @param <T> type of choice object
+ */
+public interface QueryCache<T> {
+
+    /**
+     * Retrieves cached results
+     *
+     * @param key cache key
+     * @return cached results or {@code null} if there are none or they have expired
+     */
+    CachedResponse<T> get(String key);
+
+    /**
+     * Stores results
+     *
+     * @param key      cache key
+     * @param response results to store
+     */
+    void put(String key, CachedResponse<T> response);
+
+    /**
+     * Removes all cached results that contain the choice with the specified id, as well as any results whose choice
+     * ids are not known.
+     *
+     * @param id choice id
+     */
+    void invalidate(String id);
+
+    /**
+     * Removes all cached results
+     */
+    void clear();
+
+    /**
+     * @return number of lookups that were answered from the cache
+     */
+    long getHitCount();
+
+    /**
+     * @return number of lookups that were not answered from the cache
+     */
+    long getMissCount();
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.Session;
+import org.apache.wicket.core.request.handler.ListenerRequestHandler;
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.cycle.IRequestCycleListener;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.http.WebRequest;
+
+/**
+ * Tells a query that a newer query of the same component has started, see
+ * {@link ApplicationSettings#setQueryCancellation(boolean)}. Each session keeps a sequence number per component that
+ * every query increments; a query is cancelled once the sequence has moved past its own number.
+ */
+final class QueryCancellation {
+
+    /** query keys tracked per session, the sequences are discarded when there are more */
+    private static final int MAX_KEYS = 256;
+
+    private static final MetaDataKey<ConcurrentHashMap<String, AtomicLong>> SEQUENCES =
+            new MetaDataKey<ConcurrentHashMap<String, AtomicLong>>() {};
+
+    /** query of the current request registered by {@link Listener} */
+    private static final MetaDataKey<QueryCancellation> STARTED = new MetaDataKey<QueryCancellation>() {};
+
+    private final String key;
+    private final AtomicLong latest;
+    private final long sequence;
+
+    private QueryCancellation(String key, AtomicLong latest, long sequence) {
+        this.key = key;
+        this.latest = latest;
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return {@code true} if a newer query of the same component has started
+     */
+    boolean isCancelled() {
+        return latest.get() != sequence;
+    }
+
+    /**
+     * @param provider choice provider
+     * @return {@code true} if queries of the provider are tracked
+     */
+    static boolean isEnabled(ChoiceProvider<?> provider) {
+        // results that browsers and proxies may keep are always completed
+        return ApplicationSettings.get().isQueryCancellation() && provider.getCacheMaxAge() <= 0
+                && provider.getVersion() == null;
+    }
+
+    /**
+     * Builds the key of queries answered by a component listener
+     *
+     * @param pageId        page id
+     * @param componentPath page relative path of the component
+     * @return query key
+     */
+    static String getKey(int pageId, String componentPath) {
+        return pageId + ":" + componentPath;
+    }
+
+    /**
+     * Returns the cancellation of the current request's query, registering the query if {@link Listener} has not
+     * already done so
+     *
+     * @param provider provider that answers the query
+     * @param key      query key or {@code null} if the query cannot be tracked
+     * @return cancellation or {@code null} if the query is not tracked
+     */
+    static QueryCancellation forQuery(ChoiceProvider<?> provider, String key) {
+        if (key == null || !isEnabled(provider)) {
+            return null;
+        }
+        QueryCancellation started = RequestCycle.get().getMetaData(STARTED);
+        if (started != null && started.key.equals(key)) {
+            return started;
+        }
+        return start(key);
+    }
+
+    /**
+     * Registers a query, cancelling any earlier query with the same key
+     *
+     * @param key query key
+     * @return cancellation of the query or {@code null} if there is no bound session to track it in
+     */
+    private static QueryCancellation start(String key) {
+        if (!Session.exists() || Session.get().isTemporary()) {
+            return null;
+        }
+        AtomicLong latest = getSequence(Session.get(), key);
+        return new QueryCancellation(key, latest, latest.incrementAndGet());
+    }
+
+    private static AtomicLong getSequence(Session session, String key) {
+        ConcurrentHashMap<String, AtomicLong> sequences = session.getMetaData(SEQUENCES);
+        if (sequences == null) {
+            synchronized (session) {
+                sequences = session.getMetaData(SEQUENCES);
+                if (sequences == null) {
+                    sequences = new ConcurrentHashMap<String, AtomicLong>();
+                    session.setMetaData(SEQUENCES, sequences);
+                }
+            }
+        }
+        AtomicLong sequence = sequences.get(key);
+        if (sequence == null) {
+            if (sequences.size() >= MAX_KEYS) {
+                // queries still running keep their own sequence and are simply no longer cancelled
+                sequences.clear();
+            }
+            AtomicLong created = new AtomicLong();
+            sequence = sequences.putIfAbsent(key, created);
+            if (sequence == null) {
+                sequence = created;
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Registers queries of component listeners as soon as their request is resolved. Component listeners are
+     * serialized by the page lock, so without this a newer query would only be registered after the earlier ones
+     * have finished. The query's throttle token is taken first, see {@link QueryThrottle#take(String)}, so that a
+     * query that is rejected does not cancel the one that is running.
+     */
+    static final class Listener implements IRequestCycleListener {
+
+        @Override
+        public void onRequestHandlerResolved(RequestCycle cycle, IRequestHandler handler) {
+            if (!(handler instanceof ListenerRequestHandler) || !ApplicationSettings.get().isQueryCancellation()) {
+                return;
+            }
+            ListenerRequestHandler listener = (ListenerRequestHandler) handler;
+            if (listener.getBehaviorIndex() != null || listener.getPageId() == null
+                    || cycle.getRequest().getRequestParameters().getParameterValue("term").isNull()) {
+                // not a Select2 query
+                return;
+            }
+            if (cycle.getRequest() instanceof WebRequest
+                    && ((WebRequest) cycle.getRequest()).getHeader("If-None-Match") != null) {
+                // revalidation of a cached query, which is neither throttled nor tracked
+                return;
+            }
+            String key = getKey(listener.getPageId(), listener.getComponentPath());
+            if (!QueryThrottle.take(key)) {
+                return;
+            }
+            QueryCancellation started = start(key);
+            if (started != null) {
+                cycle.setMetaData(STARTED, started);
+            }
+        }
+    }
+}
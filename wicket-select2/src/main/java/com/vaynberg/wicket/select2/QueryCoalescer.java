@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares a single execution between concurrent identical queries. The first caller for a key runs the query, callers
+ * that arrive while it is running wait for it and receive the same results. Nothing is kept once the execution
+ * completes.
+ * <p>
+ * Instances are shared application-wide, see {@link ApplicationSettings#getQueryCoalescer(String)}.
+ *
+ * @param <T> type of choice object
+ * @see CoalescingChoiceProvider
+ */
+public class QueryCoalescer<T> {
+
+    private final ConcurrentMap<String, FutureTask<CachedResponse<T>>> inFlight =
+            new ConcurrentHashMap<String, FutureTask<CachedResponse<T>>>();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Runs the query unless an identical one is already running, in which case its results are awaited instead.
+     *
+     * @param key   key identifying identical queries
+     * @param query query to run
+     * @return query results
+     */
+    public CachedResponse<T> execute(String key, Callable<CachedResponse<T>> query) {
+        FutureTask<CachedResponse<T>> task = new FutureTask<CachedResponse<T>>(query);
+        FutureTask<CachedResponse<T>> running = inFlight.putIfAbsent(key, task);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            return await(running);
+        }
+
+        executions.incrementAndGet();
+        try {
+            task.run();
+        } finally {
+            inFlight.remove(key, task);
+        }
+        return await(task);
+    }
+
+    /**
+     * @return number of queries that were actually run
+     */
+    public long getExecutionCount() {
+        return executions.get();
+    }
+
+    /**
+     * @return number of queries that were answered by waiting on an identical query
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    private CachedResponse<T> await(FutureTask<CachedResponse<T>> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for query results", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Could not query choices", cause);
+        }
+    }
+}
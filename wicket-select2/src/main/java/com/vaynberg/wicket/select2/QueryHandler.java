@@ -0,0 +1,562 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.request.IRequestParameters;
+import org.apache.wicket.request.Request;
+import org.apache.wicket.request.http.WebRequest;
+import org.apache.wicket.request.http.WebResponse;
+import org.apache.wicket.util.string.Strings;
+import org.json.JSONException;
+import org.json.JSONWriter;
+
+import com.vaynberg.wicket.select2.json.Utf8JsonWriter;
+
+/**
+ * Answers a Select2 query: retrieves the choices matching the search term from a {@link ChoiceProvider} and writes
+ * them out as Json. Used by the components' own request listener as well as by {@link Select2QueryResource}. A
+ * handler answers a single query.
+ *
+ * @param <T> type of choice object
+ */
+class QueryHandler<T> {
+
+    private static final int SC_NOT_MODIFIED = 304;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** byte buffer of the {@link Utf8JsonWriter}, reused by the queries answered on a thread */
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>();
+
+    private final ChoiceProvider<T> provider;
+    private final int groupLimit;
+
+    /** metrics listener of the query being answered, {@code null} if nothing is measured */
+    private Select2Metrics metrics;
+    /** time spent writing choices out */
+    private long serializationNanos;
+
+    QueryHandler(ChoiceProvider<T> provider) {
+        this(provider, -1);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param provider   choice provider
+     * @param groupLimit maximum number of choices per group and page, {@code 0} for no limit, or {@code -1} if the
+     *                   results are not grouped
+     */
+    QueryHandler(ChoiceProvider<T> provider, int groupLimit) {
+        this.provider = provider;
+        this.groupLimit = groupLimit;
+    }
+
+    /**
+     * Takes the thread's byte buffer for a {@link Utf8JsonWriter}. The buffer is handed back once the Json has been
+     * flushed; a query answered on the same thread in the meantime gets a new one.
+     *
+     * @return byte buffer
+     */
+    private static byte[] claimBuffer() {
+        byte[] buffer = BUFFERS.get();
+        if (buffer == null) {
+            return new byte[BUFFER_SIZE];
+        }
+        BUFFERS.remove();
+        return buffer;
+    }
+
+    /**
+     * @return provider queried by this handler
+     */
+    final ChoiceProvider<T> getProvider() {
+        return provider;
+    }
+
+    /**
+     * Answers the query contained in the request
+     *
+     * @param request     request carrying the query parameters
+     * @param webResponse response the Json is written to
+     */
+    void respond(Request request, WebResponse webResponse) {
+        IRequestParameters params = request.getRequestParameters();
+
+        // retrieve choices matching the search term
+
+        String term = params.getParameterValue("term").toOptionalString();
+
+        String cursor = params.getParameterValue("cursor").toOptionalString();
+        if (Strings.isEmpty(cursor)) {
+            cursor = null;
+        }
+
+        int page = params.getParameterValue("page").toInt(1);
+        // select2 uses 1-based paging, but in wicket world we are used to
+        // 0-based
+        page -= 1;
+
+        Component component = getComponent();
+
+        int compressionThreshold = ApplicationSettings.get().getQueryCompressionThreshold();
+        if (compressionThreshold > 0) {
+            webResponse.setHeader("Vary", "Accept-Encoding");
+        }
+
+        if (isNotModified((WebRequest) request, webResponse)) {
+            return;
+        }
+
+        // revalidations answered above do not run the query and so do not count against the rate limit; components
+        // are keyed by page id so the key can be built from the listener url without loading the page
+        String throttleKey = component != null
+                ? component.getPage().getPageId() + ":" + component.getPageRelativePath()
+                : "provider:" + provider.getMetricsName();
+        if (!QueryThrottle.acquire(throttleKey, webResponse)) {
+            return;
+        }
+
+        QueryCancellation cancellation = QueryCancellation.forQuery(provider, getQueryKey(component, params));
+
+        metrics = ApplicationSettings.get().getMetrics();
+        long start = now();
+        Object event = Select2Events.beginQuery();
+
+        boolean grouped = groupLimit >= 0 && provider.supportsGrouping();
+        boolean streaming = !QueryRunner.isTimed() && (grouped ? provider.supportsStreaming()
+                : isStreamingSupported());
+        Response<T> response = null;
+        if (cancellation != null && cancellation.isCancelled()) {
+            // superseded while waiting for the page lock, the client has already moved on
+            response = new Response<T>();
+        } else if (!streaming) {
+            response = QueryRunner.run(provider, term, cursor, page,
+                    (grouped ? new GroupedResponse<T>(groupLimit) : new Response<T>()).setCancellation(cancellation));
+        }
+        // the results of a query that did not complete must neither be kept nor revalidated
+        setCachingHeaders(webResponse, response == null || !(response.isCancelled()
+                || QueryRunner.isIncomplete(response)));
+
+        // jsonize and write out the choices to the response
+
+        webResponse.setContentType("application/json");
+
+        OutputStream stream = webResponse.getOutputStream();
+        CompressingOutputStream compressing = null;
+        if (compressionThreshold > 0 && CompressingOutputStream.acceptsGzip((WebRequest) request)) {
+            stream = compressing = new CompressingOutputStream(webResponse, compressionThreshold);
+        }
+        CountingOutputStream counting = null;
+        if (metrics != null || event != null) {
+            stream = counting = new CountingOutputStream(stream);
+        }
+
+        OutputStreamWriter out = null;
+        Utf8JsonWriter utf8 = null;
+        byte[] buffer = null;
+        JSONWriter json;
+        if (provider.supportsUtf8JsonWriter()) {
+            // Json is UTF-8 regardless of the request's encoding
+            buffer = claimBuffer();
+            json = utf8 = new Utf8JsonWriter(stream, buffer);
+        } else {
+            out = new OutputStreamWriter(stream, request.getCharset());
+            json = new JSONWriter(out);
+        }
+
+        try {
+            json.object().key("results").array();
+            if (response != null) {
+                long written = now();
+                if (response instanceof GroupedResponse) {
+                    addGroups(json, (GroupedResponse<T>) response);
+                } else if (!grouped) {
+                    addValues(json, response);
+                }
+                serializationNanos += now() - written;
+            } else if (grouped) {
+                // groups are written out as the provider starts them
+                StreamingGroupedResponse groups = new StreamingGroupedResponse(json, groupLimit);
+                groups.setCancellation(cancellation);
+                provider.query(term, cursor, page, groups);
+                groups.endGroup();
+                response = groups;
+            } else {
+                // choices are written out as the provider adds them
+                response = new StreamingResponse(json).setCancellation(cancellation);
+                provider.query(term, cursor, page, response);
+            }
+            json.endArray().key("more").value(response.getHasMore());
+            if (response.getCursor() != null) {
+                // select2 passes the context back to the ajax data function when loading more results
+                json.key("context").value(response.getCursor());
+            }
+            json.endObject();
+        } catch (JSONException e) {
+            throw new RuntimeException("Could not write Json response", e);
+        }
+
+        long flushed = now();
+        try {
+            if (utf8 != null) {
+                utf8.flush();
+            } else {
+                out.flush();
+            }
+            if (compressing != null) {
+                compressing.finish();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write Json to servlet response", e);
+        } finally {
+            if (buffer != null) {
+                BUFFERS.set(buffer);
+            }
+        }
+
+        if (metrics != null) {
+            serializationNanos += now() - flushed;
+            metrics.queryCompleted(provider.getMetricsName(), now() - start - serializationNanos, serializationNanos,
+                    response.size(), Boolean.TRUE.equals(response.getHasMore()), counting.getCount());
+        }
+        if (event != null) {
+            Select2Events.endQuery(event, component, provider.getMetricsName(), term, page, response.size(),
+                    counting.getCount());
+        }
+    }
+
+    /**
+     * @return component answering the query, reported in flight recorder events, or {@code null} if there is none
+     */
+    protected Component getComponent() {
+        return null;
+    }
+
+    /**
+     * @param component component answering the query or {@code null}
+     * @param params    request parameters
+     * @return key identifying the querying component within the session, {@code null} if it is unknown
+     */
+    private String getQueryKey(Component component, IRequestParameters params) {
+        if (component != null) {
+            return QueryCancellation.getKey(component.getPage().getPageId(), component.getPageRelativePath());
+        }
+        String key = params.getParameterValue(Select2QueryResource.QUERY_KEY_PARAMETER).toOptionalString();
+        return key == null ? null : "provider:" + provider.getMetricsName() + ":" + key;
+    }
+
+    /**
+     * @return current time in nanoseconds if the query is measured, {@code 0} otherwise
+     */
+    private long now() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Writes a choice of a streaming response, measuring the time it takes
+     */
+    private void writeStreamed(JSONWriter json, T choice) throws JSONException {
+        long start = now();
+        addValue(json, choice);
+        serializationNanos += now() - start;
+    }
+
+    /**
+     * Checks whether the client already has the current results, in which case a {@code 304 Not Modified} status is
+     * sent along with the caching headers declared by the provider.
+     *
+     * @param request     request
+     * @param webResponse response
+     * @return {@code true} if the client's copy of the results is current and the query does not need to run
+     */
+    private boolean isNotModified(WebRequest request, WebResponse webResponse) {
+        String etag = getETag();
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (etag == null || ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String candidate : Strings.split(ifNoneMatch, ',')) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(etag) || ("W/" + candidate).equals(etag)) {
+                setCachingHeaders(webResponse, true);
+                webResponse.setStatus(SC_NOT_MODIFIED);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the caching headers declared by the provider
+     *
+     * @param webResponse response
+     * @param complete    {@code false} if the results are not those of the query, caching is then disabled
+     */
+    private void setCachingHeaders(WebResponse webResponse, boolean complete) {
+        int maxAge = provider.getCacheMaxAge();
+        String etag = getETag();
+
+        if (!complete || (maxAge <= 0 && etag == null)) {
+            webResponse.disableCaching();
+            return;
+        }
+
+        String scope = provider.isCachePublic() ? "public" : "private";
+        webResponse.setHeader("Cache-Control", maxAge > 0 ? scope + ", max-age=" + maxAge : scope + ", no-cache");
+        if (etag != null) {
+            webResponse.setHeader("ETag", etag);
+        }
+    }
+
+    /**
+     * @return entity tag of the provider's current version, {@code null} if the provider is not versioned
+     */
+    private String getETag() {
+        String version = provider.getVersion();
+        // weak because the same results may be sent with different content encodings
+        return version == null ? null : "W/\"" + version.replace("\"", "") + "\"";
+    }
+
+    /**
+     * @return {@code true} if choices can be written out while the provider is still producing them
+     */
+    protected boolean isStreamingSupported() {
+        return provider.supportsStreaming();
+    }
+
+    /**
+     * Writes all query results. If results are grouped but the provider does not group them itself, they are grouped
+     * by {@link GroupedValue#getGroup()}.
+     *
+     * @param json     json writer
+     * @param response query results
+     * @throws JSONException
+     */
+    protected void addValues(JSONWriter json, Iterable<T> response) throws JSONException {
+        if (groupLimit >= 0) {
+            addGroups(json, GroupedResponse.group(response));
+            return;
+        }
+        for (T item : response) {
+            addValue(json, item);
+        }
+    }
+
+    /**
+     * Writes grouped query results
+     *
+     * @param json     json writer
+     * @param response grouped query results
+     * @throws JSONException
+     */
+    protected void addGroups(JSONWriter json, GroupedResponse<T> response) throws JSONException {
+        for (int i = 0; i < response.getGroupCount(); i++) {
+            List<T> choices = response.getGroupChoices(i);
+            if (choices.isEmpty()) {
+                continue;
+            }
+            String group = response.getGroupName(i);
+            if (!Strings.isEmpty(group)) {
+                startGroup(json, group);
+            }
+            for (T item : choices) {
+                addValue(json, item);
+            }
+            if (!Strings.isEmpty(group)) {
+                endGroup(json, response.getGroupHasMore(i));
+            }
+        }
+    }
+
+    private static void startGroup(JSONWriter json, String group) throws JSONException {
+        json.object().key("text").value(group).key("children").array();
+    }
+
+    private static void endGroup(JSONWriter json, boolean more) throws JSONException {
+        json.endArray();
+        if (more) {
+            // not used by Select2 itself, available to custom formatResult functions
+            json.key("more").value(true);
+        }
+        json.endObject();
+    }
+
+    /**
+     * Writes a single choice
+     *
+     * @param json json writer
+     * @param item choice
+     * @throws JSONException
+     */
+    protected void addValue(JSONWriter json, T item) throws JSONException {
+        provider.writeChoice(item, json);
+    }
+
+    /**
+     * Grouped response that writes groups and choices into the Json response as soon as they are added. Only the
+     * number of added choices is kept, they cannot be read back.
+     */
+    private class StreamingGroupedResponse extends GroupedResponse<T> {
+
+        private final JSONWriter json;
+        /** group whose start is written along with its first choice, so empty groups are left out */
+        private String pending;
+        private boolean open;
+        private boolean more;
+        private int size;
+
+        StreamingGroupedResponse(JSONWriter json, int groupLimit) {
+            super(groupLimit);
+            this.json = json;
+        }
+
+        @Override
+        public GroupedResponse<T> startGroup(String group) {
+            endGroup();
+            pending = Strings.isEmpty(group) ? null : group;
+            return this;
+        }
+
+        @Override
+        public GroupedResponse<T> setGroupHasMore(boolean more) {
+            this.more = more;
+            if (more) {
+                setHasMore(true);
+            }
+            return this;
+        }
+
+        /**
+         * Closes the current group, if any
+         */
+        void endGroup() {
+            if (open) {
+                try {
+                    QueryHandler.endGroup(json, more);
+                } catch (JSONException e) {
+                    throw new RuntimeException("Could not write Json response", e);
+                }
+                open = false;
+            }
+            pending = null;
+            more = false;
+        }
+
+        @Override
+        public Response<T> setResults(List<T> results) {
+            return addAll(results);
+        }
+
+        @Override
+        public Response<T> addAll(Collection<? extends T> choices) {
+            for (T choice : choices) {
+                add(choice);
+            }
+            return this;
+        }
+
+        @Override
+        public <Z extends T> Response<T> add(Z choice) {
+            try {
+                if (pending != null) {
+                    QueryHandler.startGroup(json, pending);
+                    pending = null;
+                    open = true;
+                }
+                writeStreamed(json, choice);
+            } catch (JSONException e) {
+                throw new RuntimeException("Could not write Json response", e);
+            }
+            size++;
+            return this;
+        }
+
+        @Override
+        public List<T> getResults() {
+            throw new UnsupportedOperationException("Results of a streaming response cannot be read back");
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            throw new UnsupportedOperationException("Results of a streaming response cannot be read back");
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Response that writes choices into the Json response as soon as they are added. Only the number of added choices
+     * is kept, they cannot be read back.
+     */
+    private class StreamingResponse extends Response<T> {
+
+        private final JSONWriter json;
+        private int size;
+
+        StreamingResponse(JSONWriter json) {
+            this.json = json;
+        }
+
+        @Override
+        public List<T> getResults() {
+            throw new UnsupportedOperationException("Results of a streaming response cannot be read back");
+        }
+
+        @Override
+        public Response<T> setResults(List<T> results) {
+            return addAll(results);
+        }
+
+        @Override
+        public Response<T> addAll(Collection<? extends T> choices) {
+            for (T choice : choices) {
+                add(choice);
+            }
+            return this;
+        }
+
+        @Override
+        public <Z extends T> Response<T> add(Z choice) {
+            try {
+                writeStreamed(json, choice);
+            } catch (JSONException e) {
+                throw new RuntimeException("Could not write Json response", e);
+            }
+            size++;
+            return this;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            throw new UnsupportedOperationException("Results of a streaming response cannot be read back");
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+/**
+ * Runs {@link ChoiceProvider} queries on the calling thread within the query timeout configured in
+ * {@link ApplicationSettings}.
+ */
+final class QueryRunner {
+
+    private QueryRunner() {}
+
+    /**
+     * @return {@code true} if queries have a timeout, their results are then only sent once the query has completed
+     */
+    static boolean isTimed() {
+        return ApplicationSettings.get().getQueryTimeoutMillis() > 0;
+    }
+
+    /**
+     * @param response response returned by {@link #run(ChoiceProvider, String, String, int, Response)}
+     * @return {@code true} if the query did not complete and the response is empty in its place
+     */
+    static boolean isIncomplete(Response<?> response) {
+        return response instanceof IncompleteResponse;
+    }
+
+    /**
+     * Runs the query and collects its results. If a query timeout is configured the response is
+     * {@link Response#isCancelled() cancelled} once the timeout has passed, so the provider can stop, and if the
+     * provider returns after that a new, empty response is returned in place of its results, see
+     * {@link #isIncomplete(Response)}. The provider is never interrupted.
+     *
+     * @param provider choice provider
+     * @param term     search term
+     * @param cursor   continuation token or {@code null}
+     * @param page     results page
+     * @param response empty response the query results are added to
+     * @return query results
+     */
+    static <T> Response<T> run(ChoiceProvider<T> provider, String term, String cursor, int page,
+            Response<T> response) {
+        long timeout = ApplicationSettings.get().getQueryTimeoutMillis();
+        if (timeout > 0) {
+            response.setTimeout(timeout);
+        }
+
+        provider.query(term, cursor, page, response);
+
+        if (response.isTimedOut()) {
+            // the provider may have stopped early, its results are incomplete
+            return new IncompleteResponse<T>();
+        }
+        return response;
+    }
+
+    /**
+     * Empty response returned in place of the results of a query that did not complete
+     */
+    private static final class IncompleteResponse<T> extends Response<T> {
+        IncompleteResponse() {
+            setHasMore(false);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.Session;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.http.WebResponse;
+
+/**
+ * Limits the rate of queries per session and component with token buckets kept in the session, see
+ * {@link ApplicationSettings#setQueryRateLimit(double, int)}.
+ */
+final class QueryThrottle {
+
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private static final MetaDataKey<ConcurrentHashMap<String, TokenBucket>> KEY =
+            new MetaDataKey<ConcurrentHashMap<String, TokenBucket>>() {};
+
+    /** outcome of {@link #take(String)} for the query of the current request */
+    private static final MetaDataKey<Taken> TAKEN = new MetaDataKey<Taken>() {};
+
+    private QueryThrottle() {}
+
+    /**
+     * Takes a token for the query of the current request before it is answered, e.g. before the page lock is
+     * acquired. {@link #acquire(String, WebResponse)} then applies the outcome instead of taking another token.
+     *
+     * @param key key of the bucket within the session
+     * @return {@code true} if the query may run, {@code false} if it will be rejected
+     */
+    static boolean take(String key) {
+        long retryAfter = tryAcquire(key);
+        RequestCycle.get().setMetaData(TAKEN, new Taken(key, retryAfter));
+        return retryAfter == 0;
+    }
+
+    /**
+     * Takes a token from the bucket of the session and key, unless {@link #take(String)} already did so for the
+     * current request. If the bucket is empty the response is set to {@code 429 Too Many Requests} with a
+     * {@code Retry-After} header and no body, which Select2 shows with its {@code formatAjaxError} message.
+     *
+     * @param key         key of the bucket within the session, e.g. the path of the queried component
+     * @param webResponse response of the query
+     * @return {@code true} if the query may run, {@code false} if it was rejected
+     */
+    static boolean acquire(String key, WebResponse webResponse) {
+        RequestCycle cycle = RequestCycle.get();
+        Taken taken = cycle == null ? null : cycle.getMetaData(TAKEN);
+        long retryAfter = taken != null && taken.key.equals(key) ? taken.retryAfter : tryAcquire(key);
+        if (retryAfter == 0) {
+            return true;
+        }
+
+        webResponse.disableCaching();
+        webResponse.setStatus(SC_TOO_MANY_REQUESTS);
+        webResponse.setHeader("Retry-After", String.valueOf(retryAfter));
+        return false;
+    }
+
+    /**
+     * @return {@code 0} if a token was taken or the rate is not limited, otherwise the number of seconds until one is
+     *         available
+     */
+    private static long tryAcquire(String key) {
+        ApplicationSettings settings = ApplicationSettings.get();
+        double rate = settings.getQueryRateLimit();
+        if (rate <= 0 || !Session.exists() || Session.get().isTemporary()) {
+            // without a bound session the buckets would be discarded after each request
+            return 0;
+        }
+        return getBucket(Session.get(), key).acquire(System.nanoTime(), rate, settings.getQueryRateBurst());
+    }
+
+    private static TokenBucket getBucket(Session session, String key) {
+        ConcurrentHashMap<String, TokenBucket> buckets = session.getMetaData(KEY);
+        if (buckets == null) {
+            synchronized (session) {
+                buckets = session.getMetaData(KEY);
+                if (buckets == null) {
+                    buckets = new ConcurrentHashMap<String, TokenBucket>();
+                    session.setMetaData(KEY, buckets);
+                }
+            }
+        }
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            TokenBucket created = new TokenBucket();
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Token taken ahead of answering a query
+     */
+    private static final class Taken {
+        final String key;
+        final long retryAfter;
+
+        Taken(String key, long retryAfter) {
+            this.key = key;
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    /**
+     * Bucket that starts full and is refilled continuously at the configured rate
+     */
+    static final class TokenBucket implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private double tokens = -1;
+        /** refill time, meaningless after the session moved to another JVM which only delays the next refill */
+        private long refilled;
+
+        /**
+         * Takes a token
+         *
+         * @param now   current {@link System#nanoTime()}
+         * @param rate  tokens added per second
+         * @param burst capacity of the bucket
+         * @return {@code 0} if a token was taken, otherwise the number of seconds until one is available
+         */
+        synchronized long acquire(long now, double rate, int burst) {
+            if (tokens < 0) {
+                tokens = burst;
+            } else {
+                long elapsed = Math.max(now - refilled, 0);
+                tokens = Math.min(burst, tokens + elapsed * rate / 1000000000d);
+            }
+            refilled = now;
+
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max((long) Math.ceil((1 - tokens) / rate), 1);
+        }
+    }
+}
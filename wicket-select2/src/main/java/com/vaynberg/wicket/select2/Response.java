@@ -16,6 +16,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Response that will be sent to Select2 after it queries for matching choices.
@@ -27,6 +28,11 @@ public class Response<T> implements Iterable<T> {
 
     private List<T> results = new ArrayList<T>();
     private Boolean hasMore;
+    private String cursor;
+    private QueryCancellation cancellation;
+    /** {@link System#nanoTime()} at which the query times out, only if {@link #timed} */
+    private long deadline;
+    private boolean timed;
 
     public Response() {}
 
@@ -67,6 +73,25 @@ public class Response<T> implements Iterable<T> {
         return this;
     }
 
+    /**
+     * @return continuation token for the next page of results, or {@code null}
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Sets an opaque continuation token that Select2 will send back when it requests the next page of results, see
+     * {@link ChoiceProvider#query(String, String, int, Response)}. Should be set along with {@code more=true}.
+     *
+     * @param cursor continuation token
+     * @return {@code this} for chaining
+     */
+    public Response<T> setCursor(String cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
     /**
      * Adds choices to the collection
      *
@@ -89,6 +114,65 @@ public class Response<T> implements Iterable<T> {
         return this;
     }
 
+    /**
+     * Tells whether a newer query of the same component has started, so Select2 will discard these results, or the
+     * query has outlived the {@link ApplicationSettings#setQueryTimeoutMillis(long) query timeout}, so its results
+     * will not be sent. Providers with expensive queries can check it between steps to stop early and release their
+     * resources, see {@link ApplicationSettings#setQueryCancellation(boolean)}. Results of cancelled queries are not
+     * cached.
+     *
+     * @return {@code true} if the query has been superseded or has timed out
+     */
+    public boolean isCancelled() {
+        return isTimedOut() || (cancellation != null && cancellation.isCancelled());
+    }
+
+    /**
+     * @return {@code true} if the query has outlived its timeout
+     */
+    boolean isTimedOut() {
+        return timed && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @param timeoutMillis time the query may take from now on, in milliseconds
+     * @return {@code this} for chaining
+     */
+    Response<T> setTimeout(long timeoutMillis) {
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        timed = true;
+        return this;
+    }
+
+    /**
+     * Cancels this response along with another one, for responses a query is delegated to
+     *
+     * @param response response of the query this response answers in part
+     * @return {@code this} for chaining
+     */
+    Response<T> cancelWith(Response<?> response) {
+        cancellation = response.cancellation;
+        deadline = response.deadline;
+        timed = response.timed;
+        return this;
+    }
+
+    /**
+     * @return cancellation of the query this response answers or {@code null} if it is not tracked
+     */
+    QueryCancellation getCancellation() {
+        return cancellation;
+    }
+
+    /**
+     * @param cancellation cancellation of the query this response answers
+     * @return {@code this} for chaining
+     */
+    Response<T> setCancellation(QueryCancellation cancellation) {
+        this.cancellation = cancellation;
+        return this;
+    }
+
     @Override
     public Iterator<T> iterator() {
         return results.iterator();
@@ -12,16 +12,14 @@
  */
 package com.vaynberg.wicket.select2;
 
+import java.util.Collection;
 import java.util.Collections;
 
 import org.apache.wicket.markup.head.IHeaderResponse;
-import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.util.string.Strings;
 import org.json.JSONException;
 
-import com.vaynberg.wicket.select2.json.JsonBuilder;
-
 /**
  * Single-select Select2 component. Should be attached to a {@code <input type='hidden'/>} element.
  *
@@ -45,12 +43,24 @@ public class Select2Choice<T> extends AbstractSelect2Choice<T, T> {
     @Override
     public void convertInput() {
 
-        String input = getWebRequest().getRequestParameters().getParameterValue(getInputName()).toString();
-        if (Strings.isEmpty(input)) {
+        Collection<String> ids = getInputIds();
+        Collection<T> choices = ids.isEmpty() ? Collections.<T> emptyList() : toChoices(ids);
+        if (choices.isEmpty()) {
+            // an id the provider could not convert is treated as no selection
             setConvertedInput(null);
         } else {
-            setConvertedInput(getProvider().toChoices(Collections.singleton(input)).iterator().next());
+            setConvertedInput(choices.iterator().next());
+        }
+        markInputConverted();
+    }
+
+    @Override
+    Collection<String> getInputIds() {
+        String input = getWebRequest().getRequestParameters().getParameterValue(getInputName()).toString();
+        if (Strings.isEmpty(input)) {
+            return Collections.emptySet();
         }
+        return Collections.singleton(input);
     }
 
     @Override
@@ -58,7 +68,7 @@ public class Select2Choice<T> extends AbstractSelect2Choice<T, T> {
 
         T value;
         if (hasRawInput()) {
-            convertInput();
+            convertInputIfNecessary();
             value = getConvertedInput();
         } else {
             value = getModelObject();
@@ -66,17 +76,13 @@ public class Select2Choice<T> extends AbstractSelect2Choice<T, T> {
 
         if (value != null) {
 
-            JsonBuilder selection = new JsonBuilder();
-
+            CharSequence selection;
             try {
-                selection.object();
-                getProvider().toJson(value, selection);
-                selection.endObject();
+                selection = getProvider().toChoiceJson(value);
             } catch (JSONException e) {
                 throw new RuntimeException("Error converting model object to Json", e);
             }
-            response.render(OnDomReadyHeaderItem.forScript(JQuery.execute("$('#%s').select2('data', %s);",
-                    getJquerySafeMarkupId(), selection.toJson())));
+            renderSelection(response, selection);
         }
     }
 }
@@ -13,18 +13,63 @@
 package com.vaynberg.wicket.select2;
 
 import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.core.util.lang.WicketObjects;
 import org.apache.wicket.event.IEvent;
 import org.apache.wicket.markup.head.IHeaderResponse;
+import org.apache.wicket.markup.head.JavaScriptHeaderItem;
 import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
 import org.apache.wicket.markup.html.form.HiddenField;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.request.http.WebRequest;
 import org.apache.wicket.util.string.Strings;
+import org.json.JSONObject;
 
 public abstract class Select2ChoiceBaseComponent<M> extends HiddenField<M> {
 
+    /**
+     * Defines the settings profiles of a page and the function that merges component settings into them
+     */
+    private static final String PROFILES_SCRIPT = "window.wicketSelect2Profiles = window.wicketSelect2Profiles || {};"
+            + "window.wicketSelect2Profile = window.wicketSelect2Profile || function(name, settings) {"
+            + " var profile = wicketSelect2Profiles[name], merged = jQuery.extend({}, profile, settings);"
+            + " if (profile.ajax && settings.ajax) { merged.ajax = jQuery.extend({}, profile.ajax, settings.ajax); }"
+            + " return merged; };";
+
+    /**
+     * Defines the function that shows a placeholder in place of a lazily initialized component and builds Select2
+     * when the placeholder is focused, clicked or scrolled into view
+     */
+    private static final String LAZY_SCRIPT = "window.wicketSelect2Lazy = window.wicketSelect2Lazy || (function($) {"
+            + " return function(id, settings, data) {"
+            + " var el = $(document.getElementById(id)), observer, done = false; if (!el.length) { return; }"
+            + " var text = data ? ($.isArray(data) ? $.map(data, function(d) { return d.text; }).join(', ')"
+            + " : data.text) : ''; var ph = $('<input type=\"text\" readonly=\"readonly\" class=\"select2-lazy\"/>')"
+            + ".attr('id', id + '_lazy').attr('placeholder', settings.placeholder || '').val(text || '');"
+            + " if (/^[0-9.]+(px|em|%)$/.test(settings.width)) { ph.css('width', settings.width); }"
+            + " el.before(ph); var init = function(open) { if (done) { return; } done = true;"
+            + " if (observer) { observer.disconnect(); } ph.remove(); el.select2(settings);"
+            + " if (data) { el.select2('data', data); } if (open) { el.select2('open'); } };"
+            + " ph.one('focus click', function() { init(true); });"
+            + " if (window.IntersectionObserver) { observer = new IntersectionObserver(function(entries) {"
+            + " if (entries[0].isIntersecting) { init(false); } }); observer.observe(ph[0]); } }; })(jQuery);";
+
     private final Settings settings = new Settings();
 
+    private String settingsProfile;
+
+    private boolean lazyInitialization;
+
+    /**
+     * Selection recorded by {@link #renderSelection(IHeaderResponse, CharSequence)} while rendering lazily
+     */
+    private transient CharSequence lazySelection;
+
+    /**
+     * Settings profile completed with this component's defaults, and the key it is rendered under
+     */
+    private transient Settings profileBase;
+    private transient String profileKey;
+
     public Select2ChoiceBaseComponent(String id) {
         this(id, null);
     }
@@ -42,6 +87,62 @@ public abstract class Select2ChoiceBaseComponent<M> extends HiddenField<M> {
         return settings;
     }
 
+    /**
+     * Makes this component use the settings profile registered under {@code name} with
+     * {@link ApplicationSettings#registerSettingsProfile(String, Settings)}. The profile is rendered once per page and
+     * the component only renders the settings that differ from it, settings that are not set on the component are
+     * taken from the profile. Must be called before the component is initialized.
+     *
+     * @param name profile name, or {@code null} to render all settings with the component
+     */
+    public void setSettingsProfile(String name) {
+        this.settingsProfile = name;
+        this.profileBase = null;
+        this.profileKey = null;
+    }
+
+    /**
+     * @return name of the settings profile used by this component, or {@code null} if it does not use one
+     */
+    public final String getSettingsProfile() {
+        return settingsProfile;
+    }
+
+    /**
+     * Defers building Select2 until the user first focuses or clicks the component, or until it is scrolled into view
+     * in browsers that support {@code IntersectionObserver}. Until then a read-only text field showing the selected
+     * text, with the css class {@code select2-lazy}, is displayed in its place. This saves a lot of client side work on
+     * pages with many components, most of which are never used. Lazily initialized components are not part of the
+     * {@link ApplicationSettings#setBatchedInitialization(boolean) batched initialization} script.
+     *
+     * @param lazyInitialization {@code true} to build Select2 on demand
+     */
+    public void setLazyInitialization(boolean lazyInitialization) {
+        this.lazyInitialization = lazyInitialization;
+    }
+
+    /**
+     * @return {@code true} if Select2 is built on demand
+     */
+    public final boolean isLazyInitialization() {
+        return lazyInitialization;
+    }
+
+    /**
+     * @return the settings profile used by this component or {@code null}
+     */
+    private Settings getProfile() {
+        if (settingsProfile == null) {
+            return null;
+        }
+        Settings profile = ApplicationSettings.get().getSettingsProfile(settingsProfile);
+        if (profile == null) {
+            throw new IllegalStateException("Select2 component: " + getId() + " uses settings profile: "
+                    + settingsProfile + " which is not registered");
+        }
+        return profile;
+    }
+
     /**
      * Gets the markup id that is safe to use in jQuery by escaping dots in the default {@link #getMarkup()}
      *
@@ -69,12 +170,58 @@ public abstract class Select2ChoiceBaseComponent<M> extends HiddenField<M> {
 
         // initialize select2
 
-        response.render(OnDomReadyHeaderItem.forScript(JQuery.execute("$('#%s').select2(%s);", getJquerySafeMarkupId(),
-                settings.toJson())));
+        CharSequence json;
+        if (settingsProfile == null) {
+            json = settings.toJson();
+        } else {
+            if (profileBase == null) {
+                Settings base = WicketObjects.cloneObject(getProfile());
+                applyDefaults(base, null);
+                CharSequence baseJson = base.toJson();
+                profileKey = settingsProfile + "-" + fingerprint(baseJson);
+                profileBase = base;
+            }
+
+            // rendered once per page, header items with the same id are skipped
+            response.render(JavaScriptHeaderItem.forScript(PROFILES_SCRIPT, "select2-profiles"));
+            response.render(JavaScriptHeaderItem.forScript("wicketSelect2Profiles[" + JSONObject.quote(profileKey)
+                    + "] = " + profileBase.toJson() + ";", "select2-profile-" + profileKey));
+
+            json = "wicketSelect2Profile(" + JSONObject.quote(profileKey) + ", " + settings.toJson(profileBase) + ")";
+        }
+
+        if (lazyInitialization) {
+            // the selection is passed to the lazy initializer rather than rendered as a separate script
+            lazySelection = null;
+            renderInitialization(response);
+            response.render(JavaScriptHeaderItem.forScript(LAZY_SCRIPT, "select2-lazy"));
+            response.render(OnDomReadyHeaderItem.forScript("wicketSelect2Lazy(" + JSONObject.quote(getMarkupId())
+                    + ", " + json + ", " + (lazySelection == null ? "null" : lazySelection) + ");"));
+            lazySelection = null;
+            return;
+        }
+
+        if (ApplicationSettings.get().isBatchedInitialization()) {
+            BatchedInitScript script = BatchedInitScript.get(response);
+            script.add(getMarkupId(), json);
+            response.render(script);
+        } else {
+            response.render(OnDomReadyHeaderItem.forScript(JQuery.execute("$('#%s').select2(%s);",
+                    getJquerySafeMarkupId(), json)));
+        }
 
         // select current value
 
+        renderInitialization(response);
+    }
+
+    /**
+     * Renders the initialization script, recording it as a flight recorder event
+     */
+    private void renderInitialization(IHeaderResponse response) {
+        Object event = Select2Events.beginRender();
         renderInitializationScript(response);
+        Select2Events.endRender(event, this);
     }
 
 
@@ -82,25 +229,70 @@ public abstract class Select2ChoiceBaseComponent<M> extends HiddenField<M> {
     protected void onInitialize() {
         super.onInitialize();
 
+        applyDefaults(settings, getProfile());
+    }
+
+    /**
+     * Configures the ajax callbacks and localized strings of the settings, unless they are already set or are
+     * provided by the settings profile
+     *
+     * @param target  settings to configure
+     * @param profile settings profile or {@code null}
+     */
+    private void applyDefaults(Settings target, Settings profile) {
+        AjaxSettings profileAjax = profile == null ? null : profile.getAjax();
+
         // configure the ajax callbacks
-        AjaxSettings ajax = settings.getAjax(true);
+        AjaxSettings ajax = target.getAjax(true);
 
-        ajax.setData(String.format("function(term, page) { return { term: term, page:page, '%s':true, " +
-                "'%s':[window.location.protocol, '//', window.location.host, window.location.pathname].join('')}; }",
-                WebRequest.PARAM_AJAX, WebRequest.PARAM_AJAX_BASE_URL));
+        if (isUnset(ajax.getData(), profileAjax == null ? null : profileAjax.getData())) {
+            ajax.setData(String.format("function(term, page, context) { return { term: term, page:page, " +
+                    "cursor:context, '%s':true, '%s':[window.location.protocol, '//', window.location.host, " +
+                    "window.location.pathname].join('')}; }",
+                    WebRequest.PARAM_AJAX, WebRequest.PARAM_AJAX_BASE_URL));
+        }
 
-        ajax.setResults("function(data, page) { return data; }");
+        if (isUnset(ajax.getResults(), profileAjax == null ? null : profileAjax.getResults())) {
+            ajax.setResults("function(data, page) { return data; }");
+        }
 
         // configure the localized strings/renderers
-        getSettings().setFormatNoMatches("function() { return '" + getEscapedJsString("noMatches") + "';}");
-        getSettings().setFormatInputTooShort("function(input, min) { return min - input.length == 1 ? '" +
-                getEscapedJsString("inputTooShortSingular") + "' : '" + getEscapedJsString("inputTooShortPlural") +
-                "'.replace('{number}', min - input.length); }");
-        getSettings().setFormatSelectionTooBig("function(limit) { return limit == 1 ? '" +
-                getEscapedJsString("selectionTooBigSingular") + "' : '" + getEscapedJsString("selectionTooBigPlural") +
-                "'.replace('{limit}', limit); }");
-        getSettings().setFormatLoadMore("function() { return '" + getEscapedJsString("loadMore") + "';}");
-        getSettings().setFormatSearching("function() { return '" + getEscapedJsString("searching") + "';}");
+        if (isUnset(target.getFormatNoMatches(), profile == null ? null : profile.getFormatNoMatches())) {
+            target.setFormatNoMatches("function() { return '" + getEscapedJsString("noMatches") + "';}");
+        }
+        if (isUnset(target.getFormatInputTooShort(), profile == null ? null : profile.getFormatInputTooShort())) {
+            target.setFormatInputTooShort("function(input, min) { return min - input.length == 1 ? '" +
+                    getEscapedJsString("inputTooShortSingular") + "' : '" + getEscapedJsString("inputTooShortPlural") +
+                    "'.replace('{number}', min - input.length); }");
+        }
+        if (isUnset(target.getFormatSelectionTooBig(), profile == null ? null : profile.getFormatSelectionTooBig())) {
+            target.setFormatSelectionTooBig("function(limit) { return limit == 1 ? '" +
+                    getEscapedJsString("selectionTooBigSingular") + "' : '" +
+                    getEscapedJsString("selectionTooBigPlural") + "'.replace('{limit}', limit); }");
+        }
+        if (isUnset(target.getFormatLoadMore(), profile == null ? null : profile.getFormatLoadMore())) {
+            target.setFormatLoadMore("function() { return '" + getEscapedJsString("loadMore") + "';}");
+        }
+        if (isUnset(target.getFormatSearching(), profile == null ? null : profile.getFormatSearching())) {
+            target.setFormatSearching("function() { return '" + getEscapedJsString("searching") + "';}");
+        }
+    }
+
+    private static boolean isUnset(String value, String profileValue) {
+        return value == null && profileValue == null;
+    }
+
+    /**
+     * @param json profile Json
+     * @return 64 bit FNV-1a hash of the Json, so profiles completed with different defaults get different keys
+     */
+    private static String fingerprint(CharSequence json) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < json.length(); i++) {
+            hash ^= json.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return Long.toHexString(hash);
     }
 
     /**
@@ -111,6 +303,24 @@ public abstract class Select2ChoiceBaseComponent<M> extends HiddenField<M> {
      */
     protected abstract void renderInitializationScript(IHeaderResponse response);
 
+    /**
+     * Renders script that sets the current selection of Select2, for use by
+     * {@link #renderInitializationScript(IHeaderResponse)}
+     *
+     * @param response  header response
+     * @param selection Json of the selected choice or of an array of selected choices
+     */
+    protected final void renderSelection(IHeaderResponse response, CharSequence selection) {
+        if (lazyInitialization) {
+            lazySelection = selection;
+        } else if (ApplicationSettings.get().isBatchedInitialization()) {
+            BatchedInitScript.get(response).setSelection(getMarkupId(), selection);
+        } else {
+            response.render(OnDomReadyHeaderItem.forScript(JQuery.execute("$('#%s').select2('data', %s);",
+                    getJquerySafeMarkupId(), selection)));
+        }
+    }
+
     @Override
     public void onEvent(IEvent<?> event) {
         super.onEvent(event);
@@ -125,6 +335,10 @@ public abstract class Select2ChoiceBaseComponent<M> extends HiddenField<M> {
                 // its elements from DOM
 
                 target.prependJavaScript(JQuery.execute("$('#%s').select2('destroy');", getJquerySafeMarkupId()));
+                if (lazyInitialization) {
+                    // remove the placeholder in case Select2 was not built yet
+                    target.prependJavaScript(JQuery.execute("$('#%s_lazy').remove();", getJquerySafeMarkupId()));
+                }
             }
         }
     }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import org.apache.wicket.Component;
+
+/**
+ * Emits Java Flight Recorder events for Select2 queries, input conversions and initialization scripts, so slow
+ * requests can be tied to a component and correlated with GC and lock events of the same recording. See
+ * {@link FlightRecorderEvents} for the recorded events.
+ * <p>
+ * Events are only created while a recording has them enabled, otherwise each call costs a check of a final event
+ * setting. On JREs without the {@code jdk.jfr} module nothing is recorded and the event classes are never loaded.
+ */
+final class Select2Events {
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private Select2Events() {}
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, Select2Events.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return started query event or {@code null} if queries are not being recorded
+     */
+    static Object beginQuery() {
+        return AVAILABLE ? FlightRecorderEvents.beginQuery() : null;
+    }
+
+    /**
+     * Ends and commits a query event
+     *
+     * @param event     event returned by {@link #beginQuery()}
+     * @param component component answering the query, {@code null} for {@link Select2QueryResource}
+     * @param provider  provider name
+     * @param term      search term
+     * @param page      0-based results page
+     * @param results   number of choices returned
+     * @param bytes     size of the Json response, before any compression
+     */
+    static void endQuery(Object event, Component component, String provider, String term, int page, int results,
+            long bytes) {
+        if (event != null) {
+            FlightRecorderEvents.endQuery(event, component, provider, term, page, results, bytes);
+        }
+    }
+
+    /**
+     * @return started conversion event or {@code null} if conversions are not being recorded
+     */
+    static Object beginConversion() {
+        return AVAILABLE ? FlightRecorderEvents.beginConversion() : null;
+    }
+
+    /**
+     * Ends and commits a conversion event
+     *
+     * @param event     event returned by {@link #beginConversion()}
+     * @param component component whose input was converted
+     * @param provider  provider name
+     * @param ids       number of ids converted
+     */
+    static void endConversion(Object event, Component component, String provider, int ids) {
+        if (event != null) {
+            FlightRecorderEvents.endConversion(event, component, provider, ids);
+        }
+    }
+
+    /**
+     * @return started render event or {@code null} if rendering is not being recorded
+     */
+    static Object beginRender() {
+        return AVAILABLE ? FlightRecorderEvents.beginRender() : null;
+    }
+
+    /**
+     * Ends and commits a render event
+     *
+     * @param event     event returned by {@link #beginRender()}
+     * @param component component whose initialization script was rendered
+     */
+    static void endRender(Object event, Component component) {
+        if (event != null) {
+            FlightRecorderEvents.endRender(event, component);
+        }
+    }
+}
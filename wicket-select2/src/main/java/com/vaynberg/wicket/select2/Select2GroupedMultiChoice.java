@@ -18,11 +18,16 @@ import org.json.JSONWriter;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
+ * Multi-select component that shows choices under the name of their group. Providers that
+ * {@link ChoiceProvider#supportsGrouping() group choices themselves} add them to a {@link GroupedResponse}, which
+ * streams them in a single pass and pages each group separately, see {@link #setGroupPageSize(int)}. Choices of other
+ * providers are grouped by {@link GroupedValue#getGroup()} after the query, in the order their groups first appear.
+ *
  * @author Justin Graham
  * @since 4/19/17
  */
@@ -31,6 +36,8 @@ public class Select2GroupedMultiChoice<T extends GroupedValue> extends Select2Mu
     /** The key to group values which have null or empty groups */
     private static final String UNGROUPED = "UNGROUPED";
 
+    private int groupPageSize;
+
     public Select2GroupedMultiChoice(String id, IModel<Collection<T>> model, ChoiceProvider<T> provider) {
         super(id, model, provider);
     }
@@ -94,25 +101,55 @@ public class Select2GroupedMultiChoice<T extends GroupedValue> extends Select2Mu
         }
     }
 
+    /**
+     * Sets the maximum number of choices of each group on a page of results, passed to providers that group choices
+     * themselves with {@link GroupedResponse#getGroupLimit()}, so that one large group does not require large pages.
+     *
+     * @param groupPageSize maximum number of choices per group and page, {@code 0}, the default, for no limit
+     */
+    public void setGroupPageSize(int groupPageSize) {
+        if (groupPageSize < 0) {
+            throw new IllegalArgumentException("Argument 'groupPageSize' cannot be negative");
+        }
+        this.groupPageSize = groupPageSize;
+    }
+
+    /**
+     * @return maximum number of choices per group and page, {@code 0} if there is no limit
+     */
+    public final int getGroupPageSize() {
+        return groupPageSize;
+    }
+
+    @Override
+    int getGroupLimit() {
+        return groupPageSize;
+    }
+
+    @Override
+    protected boolean isStreamingSupported() {
+        // results have to be grouped before they can be written
+        return false;
+    }
+
     /**
      * Groups the {@link Iterable} on the {@link GroupedValue#group}. If the value's group is null or
-     * empty its added as {@link Select2GroupedMultiChoice#UNGROUPED}
+     * empty its added as {@link Select2GroupedMultiChoice#UNGROUPED}. Groups are ordered by their first value.
      *
      * @param response Iterable collection of objects extending {@link GroupedValue}
-     * @return the sorted values
+     * @return the grouped values
      */
     protected Map<String, List<T>> groupItems(final Iterable<T> response) {
-        final Map<String, List<T>> groupedItems = new HashMap<String, List<T>>();
+        final Map<String, List<T>> groupedItems = new LinkedHashMap<String, List<T>>();
         for (final T item : response) {
             final String group = item.getGroup();
             final String key = (group == null || group.isEmpty()) ? UNGROUPED : group;
-            if (groupedItems.containsKey(key)) {
-                groupedItems.get(key).add(item);
-                continue;
+            List<T> items = groupedItems.get(key);
+            if (items == null) {
+                items = new ArrayList<T>();
+                groupedItems.put(key, items);
             }
-            groupedItems.put(key, new ArrayList<T>() {{
-                add(item);
-            }});
+            items.add(item);
         }
         return groupedItems;
     }
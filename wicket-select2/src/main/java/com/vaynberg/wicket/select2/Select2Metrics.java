@@ -0,0 +1,61 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+/**
+ * Receives timings and counts of the work done by Select2 components, for example to export them to a monitoring
+ * system. Registered with {@link ApplicationSettings#setMetrics(Select2Metrics)}, see {@link JmxSelect2Metrics} for
+ * an implementation that publishes them over JMX.
+ * <p>
+ * Providers are identified by {@link ChoiceProvider#getMetricsName()}. Implementations are called concurrently by all
+ * requests and must be thread-safe and fast.
+ */
+public interface Select2Metrics {
+
+    /** Cache name for lookups of the {@link QueryCache} of a {@link CachingChoiceProvider} */
+    String QUERY_CACHE = "query";
+
+    /** Cache name for lookups of the {@link ChoiceProvider#getJsonCache() Json cache} of a provider */
+    String JSON_CACHE = "json";
+
+    /**
+     * Called after a query has been answered
+     *
+     * @param provider          provider name
+     * @param queryNanos        time spent querying the provider
+     * @param serializationNanos time spent converting the results to Json and writing them out
+     * @param results           number of choices returned
+     * @param more              whether more results were available
+     * @param bytes             size of the Json response, before any compression
+     */
+    void queryCompleted(String provider, long queryNanos, long serializationNanos, int results, boolean more,
+            long bytes);
+
+    /**
+     * Called after submitted choice ids have been converted to choices
+     *
+     * @param provider provider name
+     * @param nanos    time spent converting
+     * @param ids      number of ids converted
+     */
+    void inputConverted(String provider, long nanos, int ids);
+
+    /**
+     * Called when a cache has been consulted
+     *
+     * @param provider provider name
+     * @param cache    {@link #QUERY_CACHE} or {@link #JSON_CACHE}
+     * @param hit      {@code true} if the cache contained the entry
+     */
+    void cacheLookup(String provider, String cache, boolean hit);
+}
@@ -14,7 +14,6 @@ package com.vaynberg.wicket.select2;
 
 import com.vaynberg.wicket.select2.json.JsonBuilder;
 import org.apache.wicket.markup.head.IHeaderResponse;
-import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
 import org.apache.wicket.markup.html.form.FormComponent;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.util.string.Strings;
@@ -23,6 +22,7 @@ import org.json.JSONException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -48,19 +48,36 @@ public class Select2MultiChoice<T> extends AbstractSelect2Choice<T, Collection<T
     @Override
     public void convertInput() {
 
-        String input = getWebRequest().getRequestParameters().getParameterValue(getInputName()).toString();
+        Collection<String> ids = getInputIds();
 
         final Collection<T> choices;
-        if (Strings.isEmpty(input)) {
+        if (ids.isEmpty()) {
             choices = new ArrayList<T>();
         } else {
-            List<String> ids = splitInput(input);
-            choices = getProvider().toChoices(ids);
+            choices = toChoices(ids);
         }
 
         setConvertedInput(choices);
+        markInputConverted();
+    }
+
+    @Override
+    Collection<String> getInputIds() {
+        String input = getWebRequest().getRequestParameters().getParameterValue(getInputName()).toString();
+        if (Strings.isEmpty(input)) {
+            return Collections.emptyList();
+        }
+        return splitInput(input);
     }
 
+    /**
+     * Splits the submitted value into choice ids. The value is either a comma separated list of plain ids or, when it
+     * starts with <code>{</code> and ends with <code>}</code>, a list of Json object ids. Braces inside quoted Json
+     * strings, including escaped quotes, do not start or end an id.
+     *
+     * @param input submitted value
+     * @return choice ids
+     */
     static List<String> splitInput(String input) {
 
         if (input.startsWith("{") && input.endsWith("}")) {
@@ -68,21 +85,28 @@ public class Select2MultiChoice<T> extends AbstractSelect2Choice<T, Collection<T
             List<String> result = new ArrayList<String>();
 
             int openBracket = 0;
-            Integer lastStartIdx = null;
+            int lastStartIdx = -1;
+            boolean quoted = false;
             for (int i = 0; i < input.length(); i++) {
                 char c = input.charAt(i);
-                if (c == '{') {
+                if (quoted) {
+                    if (c == '\\') {
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == '{') {
                     openBracket++;
-                    if (lastStartIdx == null) {
+                    if (lastStartIdx < 0) {
                         lastStartIdx = i;
                     }
-                }
-                if (c == '}') {
+                } else if (c == '}') {
                     openBracket--;
                     if (openBracket == 0) {
-                        String substring = input.substring(lastStartIdx, i + 1);
-                        result.add(substring);
-                        lastStartIdx = null;
+                        result.add(input.substring(lastStartIdx, i + 1));
+                        lastStartIdx = -1;
                     }
                 }
             }
@@ -120,7 +144,7 @@ public class Select2MultiChoice<T> extends AbstractSelect2Choice<T, Collection<T
     protected void renderInitializationScript(IHeaderResponse response) {
         Collection<? extends T> choices;
         if (hasRawInput()) {
-            convertInput();
+            convertInputIfNecessary();
             choices = getConvertedInput();
         } else {
             choices = getModelObject();
@@ -133,17 +157,14 @@ public class Select2MultiChoice<T> extends AbstractSelect2Choice<T, Collection<T
             try {
                 selection.array();
                 for (T choice : choices) {
-                    selection.object();
-                    getProvider().toJson(choice, selection);
-                    selection.endObject();
+                    getProvider().writeChoice(choice, selection);
                 }
                 selection.endArray();
             } catch (JSONException e) {
                 throw new RuntimeException("Error converting model object to Json", e);
             }
 
-            response.render(OnDomReadyHeaderItem.forScript(JQuery.execute("$('#%s').select2('data', %s);",
-                    getJquerySafeMarkupId(), selection.toJson())));
+            renderSelection(response, selection.toJson());
         }
     }
 }
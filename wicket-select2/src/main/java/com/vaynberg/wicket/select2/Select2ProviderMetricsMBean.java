@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+/**
+ * Metrics of a single {@link ChoiceProvider} published by {@link JmxSelect2Metrics}. Latencies are in milliseconds,
+ * percentiles are estimates that are at most twice the actual value.
+ */
+public interface Select2ProviderMetricsMBean {
+
+    /**
+     * @return number of queries answered
+     */
+    long getQueryCount();
+
+    /**
+     * @return share of queries that had more results, between {@code 0} and {@code 1}
+     */
+    double getHasMoreRatio();
+
+    /**
+     * @return mean number of choices returned per query
+     */
+    double getMeanResultCount();
+
+    /**
+     * @return total size of the Json responses, before any compression
+     */
+    long getResponseBytes();
+
+    /**
+     * @return mean size of a Json response, before any compression
+     */
+    double getMeanResponseBytes();
+
+    double getQueryMillisP50();
+
+    double getQueryMillisP95();
+
+    double getQueryMillisP99();
+
+    double getQueryMillisMax();
+
+    double getSerializationMillisP50();
+
+    double getSerializationMillisP95();
+
+    double getSerializationMillisP99();
+
+    /**
+     * @return number of times submitted input was converted to choices
+     */
+    long getConversionCount();
+
+    /**
+     * @return total number of choice ids converted
+     */
+    long getConvertedIds();
+
+    double getConversionMillisP50();
+
+    double getConversionMillisP99();
+
+    /**
+     * @return share of lookups answered by the query cache, between {@code 0} and {@code 1}
+     */
+    double getQueryCacheHitRatio();
+
+    /**
+     * @return share of lookups answered by the choice Json cache, between {@code 0} and {@code 1}
+     */
+    double getJsonCacheHitRatio();
+
+    /**
+     * Discards all metrics collected so far
+     */
+    void reset();
+}
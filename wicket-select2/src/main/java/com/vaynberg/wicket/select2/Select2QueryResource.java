@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.request.http.WebResponse;
+import org.apache.wicket.request.mapper.parameter.PageParameters;
+import org.apache.wicket.request.resource.IResource;
+import org.apache.wicket.request.resource.ResourceReference;
+
+/**
+ * Application-wide resource that answers Select2 queries for providers registered with
+ * {@link ApplicationSettings#registerProvider(String, ChoiceProvider)}. Unlike the components' own request listener
+ * the resource does not need the page, so queries skip the page store and the page lock entirely.
+ * <p>
+ * The provider is selected by the {@value #PROVIDER_PARAMETER} request parameter. Caching headers are controlled by
+ * the provider, see {@link ChoiceProvider#getCacheMaxAge()} and {@link ChoiceProvider#getVersion()}.
+ * <p>
+ * <strong>Every registered provider is a public endpoint:</strong> anyone who knows, or guesses, its name can query it
+ * without having seen a page that uses it. Register only providers whose choices every user may see, or restrict
+ * queries by overriding {@link #isQueryAllowed(String, IResource.Attributes)} in a subclass installed with
+ * {@link ApplicationSettings#setQueryResource(Select2QueryResource)}, or with the application's
+ * {@link org.apache.wicket.authorization.IAuthorizationStrategy}.
+ *
+ * @see Select2Choice#setSharedProvider(String)
+ */
+public class Select2QueryResource implements IResource {
+
+    /** Name of the request parameter that carries the name of the shared provider */
+    public static final String PROVIDER_PARAMETER = "provider";
+
+    /** Name of the request parameter that carries the group limit of grouping components, see GroupedResponse */
+    public static final String GROUP_LIMIT_PARAMETER = "groupLimit";
+
+    /**
+     * Name of the request parameter that identifies the querying component when superseded queries are cancelled, see
+     * {@link ApplicationSettings#setQueryCancellation(boolean)}
+     */
+    public static final String QUERY_KEY_PARAMETER = "queryKey";
+
+    private static final ResourceReference REFERENCE = new ResourceReference(Select2QueryResource.class, "query") {
+        @Override
+        public IResource getResource() {
+            return ApplicationSettings.get().getQueryResource();
+        }
+    };
+
+    /**
+     * @return reference to the application-wide query resource
+     */
+    public static ResourceReference getReference() {
+        return REFERENCE;
+    }
+
+    @Override
+    public void respond(Attributes attributes) {
+        String name = attributes.getRequest().getRequestParameters().getParameterValue(PROVIDER_PARAMETER)
+                .toOptionalString();
+
+        // the query handler takes care of caching headers so this is not an AbstractResource, which would add its own
+        WebResponse response = (WebResponse) attributes.getResponse();
+
+        // checked before the lookup so that unauthorized clients cannot probe for provider names
+        if (name != null && !isQueryAllowed(name, attributes)) {
+            response.sendError(403, "Select2 choice provider query not allowed");
+            return;
+        }
+
+        ChoiceProvider<Object> provider = name == null ? null : ApplicationSettings.get().getProvider(name);
+        if (provider == null) {
+            response.sendError(404, "Unknown Select2 choice provider: " + name);
+            return;
+        }
+
+        int groupLimit = attributes.getRequest().getRequestParameters().getParameterValue(GROUP_LIMIT_PARAMETER)
+                .toInt(-1);
+
+        new QueryHandler<Object>(provider, groupLimit).respond(attributes.getRequest(), response);
+    }
+
+    /**
+     * Decides whether the current request may query a shared provider, queries that are not allowed are answered with
+     * {@code 403 Forbidden}. The default implementation asks the application's
+     * {@link org.apache.wicket.authorization.IAuthorizationStrategy#isResourceAuthorized(IResource, PageParameters)
+     * authorization strategy}, passing the provider name as the {@value #PROVIDER_PARAMETER} parameter, so that
+     * strategies can authorize each provider.
+     *
+     * @param name       name of the provider
+     * @param attributes request attributes
+     * @return {@code true} if the query may run
+     */
+    protected boolean isQueryAllowed(String name, Attributes attributes) {
+        PageParameters parameters = new PageParameters(attributes.getParameters()).set(PROVIDER_PARAMETER, name);
+        return Application.get().getSecuritySettings().getAuthorizationStrategy().isResourceAuthorized(this,
+                parameters);
+    }
+}
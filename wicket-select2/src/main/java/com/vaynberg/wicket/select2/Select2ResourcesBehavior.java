@@ -22,7 +22,8 @@ import org.apache.wicket.markup.head.JavaScriptHeaderItem;
 /**
  * Adds various resources needed by Select2 such as JavaScript and CSS. Which resources are added is controlled by the
  * {@link ApplicationSettings} object. Minified versions of JavaScript resources will be used when the application is
- * configured in deployment mode.
+ * configured in deployment mode, and all scripts are loaded as a single bundle when it is registered with
+ * {@link ApplicationSettings#registerJavaScriptBundle()}.
  *
  * @author igor
  */
@@ -43,6 +44,10 @@ public class Select2ResourcesBehavior extends Behavior {
 
         if (settings.isIncludeJavascript()) {
             response.render(JavaScriptHeaderItem.forReference(settings.getJavaScriptReference()));
+
+            if (settings.getLocaleReference() != null) {
+                response.render(JavaScriptHeaderItem.forReference(settings.getLocaleReference()));
+            }
         }
 
         if (settings.isIncludeCss()) {
@@ -12,19 +12,46 @@
  */
 package com.vaynberg.wicket.select2;
 
-import java.io.Serializable;
-
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Objects;
+
+import org.apache.wicket.Application;
 import org.json.JSONException;
+import org.json.JSONObject;
 import org.json.JSONStringer;
+import org.json.JSONWriter;
 
 import com.vaynberg.wicket.select2.json.Json;
+import com.vaynberg.wicket.select2.json.JsonFunction;
 
 /**
  * Select2 settings. Refer to the Select2 documentation for what these options mean.
+ * <p>
+ * Settings are serialized with every page, so only the options that are set are written and equal format functions,
+ * such as the localized ones every component gets by default, are written as shared instances. Within a page each of
+ * them is stored only once, however many components use it.
  *
  * @author igor
  */
-public final class Settings implements Serializable {
+public final class Settings implements Externalizable {
+
+    private static final int EXTERNAL_VERSION = 1;
+
+    /**
+     * Stands in for the ajax url while the cached Json is written. Raw control characters are always escaped in Json
+     * so the marker cannot clash with actual settings.
+     */
+    private static final String URL_MARKER = "\u0000url\u0000";
+
+    /** Settings with nothing set, used when writing all settings */
+    private static final Settings EMPTY = new Settings();
+
+    /** formatSelection up to escapeMarkup: the functions components get from their localized defaults */
+    private static final long SHARED_OPTIONS = 0xFF800L;
 
     /**
      * Some predefined width option values
@@ -60,48 +87,222 @@ public final class Settings implements Serializable {
     private String[] tokenSeparators;
     private Boolean dropdownAutoWidth;
 
+    /**
+     * Json of these settings with the ajax url left out: either the complete Json if there is no url, or the Json
+     * before and after the url. Cleared by every setter.
+     */
+    private transient String[] template;
+    private transient int templateAjaxModCount;
+
+    /**
+     * Converts the settings to Json. The Json is cached until the settings change, only the ajax url is written anew
+     * each time so that components whose settings differ just by their url share the same cached Json.
+     *
+     * @return settings as Json
+     */
     public CharSequence toJson() {
+        CharSequence url = ajax == null ? null : ajax.getUrl();
+        boolean hasUrl = url != null;
+
+        if (template == null || (template.length == 2) != hasUrl
+                || (ajax != null && ajax.getModCount() != templateAjaxModCount)) {
+            String json = writeJson(hasUrl ? new JsonFunction(URL_MARKER) : null, EMPTY);
+            int marker = json.indexOf(URL_MARKER);
+            if (marker < 0) {
+                template = new String[] {intern(json)};
+            } else {
+                template = new String[] {intern(json.substring(0, marker)),
+                        intern(json.substring(marker + URL_MARKER.length()))};
+            }
+            templateAjaxModCount = ajax == null ? 0 : ajax.getModCount();
+        }
+
+        if (template.length == 1) {
+            return template[0];
+        }
+        String quoted = JSONObject.quote(url.toString());
+        return new StringBuilder(template[0].length() + quoted.length() + template[1].length()).append(template[0])
+                .append(quoted).append(template[1]);
+    }
+
+    /**
+     * Shares equal Json templates and format functions between the settings instances of the current application.
+     * Only strings that are the same for many components are passed in, per-component values such as urls are not.
+     *
+     * @param value string or {@code null}
+     * @return canonical instance of the string, or the string itself outside of an application
+     */
+    static String intern(String value) {
+        if (value == null || !Application.exists()) {
+            return value;
+        }
+        return ApplicationSettings.get().getStringPool().intern(value);
+    }
+
+    /**
+     * @return options in serialization order
+     */
+    private Object[] options() {
+        return new Object[] {minimumInputLength, minimumResultsForSearch, maximumSelectionSize, placeholder, allowClear,
+                multiple, closeOnSelect, id, matcher, tokenizer, sortResults, formatSelection, formatSelectionTooBig,
+                formatResult, formatNoMatches, formatInputTooShort, formatResultCssClass, formatLoadMore,
+                formatSearching, escapeMarkup, createSearchChoice, initSelection, query, width, openOnEnter,
+                containerCss, dropdownCss, containerCssClass, dropdownCssClass, ajax, data, tags, separator,
+                tokenSeparators, dropdownAutoWidth};
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        Object[] options = options();
+        long set = 0;
+        for (int i = 0; i < options.length; i++) {
+            if (options[i] != null) {
+                set |= 1L << i;
+            }
+        }
+        out.writeByte(EXTERNAL_VERSION);
+        out.writeLong(set);
+        for (int i = 0; i < options.length; i++) {
+            writeOption(out, options[i], (SHARED_OPTIONS & (1L << i)) != 0);
+        }
+    }
+
+    /**
+     * Writes an option that is set. Shared strings are written as their canonical instances so the stream stores each
+     * only once.
+     */
+    static void writeOption(ObjectOutput out, Object option, boolean shared) throws IOException {
+        if (shared && option instanceof String) {
+            out.writeObject(intern((String) option));
+        } else if (option != null) {
+            out.writeObject(option);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        int version = in.readByte();
+        if (version != EXTERNAL_VERSION) {
+            throw new InvalidObjectException("Unsupported Select2 settings version: " + version);
+        }
+        long set = in.readLong();
+        int i = 0;
+        minimumInputLength = (Integer) readOption(in, set, SHARED_OPTIONS, i++);
+        minimumResultsForSearch = (Integer) readOption(in, set, SHARED_OPTIONS, i++);
+        maximumSelectionSize = (Integer) readOption(in, set, SHARED_OPTIONS, i++);
+        placeholder = readOption(in, set, SHARED_OPTIONS, i++);
+        allowClear = (Boolean) readOption(in, set, SHARED_OPTIONS, i++);
+        multiple = (Boolean) readOption(in, set, SHARED_OPTIONS, i++);
+        closeOnSelect = (Boolean) readOption(in, set, SHARED_OPTIONS, i++);
+        id = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        matcher = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        tokenizer = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        sortResults = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        formatSelection = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        formatSelectionTooBig = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        formatResult = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        formatNoMatches = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        formatInputTooShort = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        formatResultCssClass = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        formatLoadMore = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        formatSearching = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        escapeMarkup = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        createSearchChoice = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        initSelection = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        query = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        width = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        openOnEnter = (Boolean) readOption(in, set, SHARED_OPTIONS, i++);
+        containerCss = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        dropdownCss = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        containerCssClass = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        dropdownCssClass = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        ajax = (AjaxSettings) readOption(in, set, SHARED_OPTIONS, i++);
+        data = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        tags = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        separator = (String) readOption(in, set, SHARED_OPTIONS, i++);
+        tokenSeparators = (String[]) readOption(in, set, SHARED_OPTIONS, i++);
+        dropdownAutoWidth = (Boolean) readOption(in, set, SHARED_OPTIONS, i++);
+        template = null;
+    }
+
+    /**
+     * Reads the option with the specified index if it was set, shared strings are shared with other settings instances
+     */
+    static Object readOption(ObjectInput in, long set, long shared, int index) throws IOException,
+            ClassNotFoundException {
+        if ((set & (1L << index)) == 0) {
+            return null;
+        }
+        Object option = in.readObject();
+        return (shared & (1L << index)) != 0 && option instanceof String ? intern((String) option) : option;
+    }
+
+    /**
+     * Converts the settings to Json, leaving out settings that have the same value in {@code base}. Settings that are
+     * not set are left out as well, so they take their value from {@code base} when the Json is merged into it.
+     *
+     * @param base settings to compare with
+     * @return Json of the differing settings
+     */
+    public CharSequence toJson(Settings base) {
+        CharSequence url = ajax == null ? null : ajax.getUrl();
+        return writeJson(url, base == null ? EMPTY : base);
+    }
+
+    private static void writeObject(JSONWriter writer, String key, Object value, Object base) throws JSONException {
+        if (!Objects.deepEquals(value, base)) {
+            Json.writeObject(writer, key, value);
+        }
+    }
+
+    private static void writeFunction(JSONWriter writer, String key, String value, String base) throws JSONException {
+        if (!Objects.equals(value, base)) {
+            Json.writeFunction(writer, key, value);
+        }
+    }
+
+    private String writeJson(Object url, Settings base) {
         try {
             JSONStringer writer = new JSONStringer();
             writer.object();
-            Json.writeObject(writer, "minimumInputLength", minimumInputLength);
-            Json.writeObject(writer, "minimumResultsForSearch", minimumResultsForSearch);
-            Json.writeObject(writer, "maximumSelectionSize", maximumSelectionSize);
-            Json.writeObject(writer, "placeholder", placeholder);
-            Json.writeObject(writer, "allowClear", allowClear);
-            Json.writeObject(writer, "multiple", multiple);
-            Json.writeObject(writer, "closeOnSelect", closeOnSelect);
-            Json.writeFunction(writer, "id", id);
-            Json.writeFunction(writer, "matcher", matcher);
-            Json.writeFunction(writer, "tokenizer", tokenizer);
-            Json.writeFunction(writer, "sortResults", sortResults);
-            Json.writeFunction(writer, "formatSelection", formatSelection);
-            Json.writeFunction(writer, "formatResult", formatResult);
-            Json.writeFunction(writer, "formatNoMatches", formatNoMatches);
-            Json.writeFunction(writer, "formatInputTooShort", formatInputTooShort);
-            Json.writeFunction(writer, "formatResultCssClass", formatResultCssClass);
-            Json.writeFunction(writer, "formatSelectionTooBig", formatSelectionTooBig);
-            Json.writeFunction(writer, "formatLoadMore", formatLoadMore);
-            Json.writeFunction(writer, "formatSearching", formatSearching);
-            Json.writeFunction(writer, "escapeMarkup", escapeMarkup);
-            Json.writeFunction(writer, "createSearchChoice", createSearchChoice);
-            Json.writeFunction(writer, "initSelection", initSelection);
-            Json.writeFunction(writer, "query", query);
-            Json.writeObject(writer, "width", width);
-            Json.writeObject(writer, "openOnEnter", openOnEnter);
-            Json.writeFunction(writer, "containerCss", containerCss);
-            Json.writeObject(writer, "containerCssClass", containerCssClass);
-            Json.writeFunction(writer, "dropdownCss", dropdownCss);
-            Json.writeObject(writer, "dropdownCssClass", dropdownCssClass);
-            Json.writeObject(writer, "separator", separator);
-            Json.writeObject(writer, "tokenSeparators", tokenSeparators);
-            Json.writeObject(writer, "dropdownAutoWidth", dropdownAutoWidth);
+            writeObject(writer, "minimumInputLength", minimumInputLength, base.minimumInputLength);
+            writeObject(writer, "minimumResultsForSearch", minimumResultsForSearch, base.minimumResultsForSearch);
+            writeObject(writer, "maximumSelectionSize", maximumSelectionSize, base.maximumSelectionSize);
+            writeObject(writer, "placeholder", placeholder, base.placeholder);
+            writeObject(writer, "allowClear", allowClear, base.allowClear);
+            writeObject(writer, "multiple", multiple, base.multiple);
+            writeObject(writer, "closeOnSelect", closeOnSelect, base.closeOnSelect);
+            writeFunction(writer, "id", id, base.id);
+            writeFunction(writer, "matcher", matcher, base.matcher);
+            writeFunction(writer, "tokenizer", tokenizer, base.tokenizer);
+            writeFunction(writer, "sortResults", sortResults, base.sortResults);
+            writeFunction(writer, "formatSelection", formatSelection, base.formatSelection);
+            writeFunction(writer, "formatResult", formatResult, base.formatResult);
+            writeFunction(writer, "formatNoMatches", formatNoMatches, base.formatNoMatches);
+            writeFunction(writer, "formatInputTooShort", formatInputTooShort, base.formatInputTooShort);
+            writeFunction(writer, "formatResultCssClass", formatResultCssClass, base.formatResultCssClass);
+            writeFunction(writer, "formatSelectionTooBig", formatSelectionTooBig, base.formatSelectionTooBig);
+            writeFunction(writer, "formatLoadMore", formatLoadMore, base.formatLoadMore);
+            writeFunction(writer, "formatSearching", formatSearching, base.formatSearching);
+            writeFunction(writer, "escapeMarkup", escapeMarkup, base.escapeMarkup);
+            writeFunction(writer, "createSearchChoice", createSearchChoice, base.createSearchChoice);
+            writeFunction(writer, "initSelection", initSelection, base.initSelection);
+            writeFunction(writer, "query", query, base.query);
+            writeObject(writer, "width", width, base.width);
+            writeObject(writer, "openOnEnter", openOnEnter, base.openOnEnter);
+            writeFunction(writer, "containerCss", containerCss, base.containerCss);
+            writeObject(writer, "containerCssClass", containerCssClass, base.containerCssClass);
+            writeFunction(writer, "dropdownCss", dropdownCss, base.dropdownCss);
+            writeObject(writer, "dropdownCssClass", dropdownCssClass, base.dropdownCssClass);
+            writeObject(writer, "separator", separator, base.separator);
+            writeObject(writer, "tokenSeparators", tokenSeparators, base.tokenSeparators);
+            writeObject(writer, "dropdownAutoWidth", dropdownAutoWidth, base.dropdownAutoWidth);
             if (ajax != null) {
                 writer.key("ajax");
-                ajax.toJson(writer);
+                ajax.toJson(writer, url, base.ajax);
             }
-            Json.writeFunction(writer, "data", data);
-            Json.writeFunction(writer, "tags", tags);
+            writeFunction(writer, "data", data, base.data);
+            writeFunction(writer, "tags", tags, base.tags);
             writer.endObject();
 
             return writer.toString();
@@ -116,6 +317,7 @@ public final class Settings implements Serializable {
 
     public void setMinimumInputLength(Integer minimumInputLength) {
         this.minimumInputLength = minimumInputLength;
+        template = null;
     }
 
     public Integer getMinimumResultsForSearch() {
@@ -124,6 +326,7 @@ public final class Settings implements Serializable {
 
     public void setMinimumResultsForSearch(Integer minimumResultsForSearch) {
         this.minimumResultsForSearch = minimumResultsForSearch;
+        template = null;
     }
 
     public Object getPlaceholder() {
@@ -132,6 +335,7 @@ public final class Settings implements Serializable {
 
     public void setPlaceholder(Object placeholder) {
         this.placeholder = placeholder;
+        template = null;
     }
 
     public Boolean getAllowClear() {
@@ -140,6 +344,7 @@ public final class Settings implements Serializable {
 
     public void setAllowClear(Boolean allowClear) {
         this.allowClear = allowClear;
+        template = null;
     }
 
     public Boolean getMultiple() {
@@ -148,6 +353,7 @@ public final class Settings implements Serializable {
 
     public void setMultiple(Boolean multiple) {
         this.multiple = multiple;
+        template = null;
     }
 
     public Boolean getCloseOnSelect() {
@@ -156,6 +362,7 @@ public final class Settings implements Serializable {
 
     public void setCloseOnSelect(Boolean closeOnSelect) {
         this.closeOnSelect = closeOnSelect;
+        template = null;
     }
 
     public String getId() {
@@ -164,6 +371,7 @@ public final class Settings implements Serializable {
 
     public void setId(String id) {
         this.id = id;
+        template = null;
     }
 
     public String getFormatSelection() {
@@ -172,6 +380,7 @@ public final class Settings implements Serializable {
 
     public void setFormatSelection(String formatSelection) {
         this.formatSelection = formatSelection;
+        template = null;
     }
 
     public String getFormatResult() {
@@ -180,6 +389,7 @@ public final class Settings implements Serializable {
 
     public void setFormatResult(String formatResult) {
         this.formatResult = formatResult;
+        template = null;
     }
 
     public String getFormatNoMatches() {
@@ -188,6 +398,7 @@ public final class Settings implements Serializable {
 
     public void setFormatNoMatches(String formatNoMatches) {
         this.formatNoMatches = formatNoMatches;
+        template = null;
     }
 
     public String getFormatInputTooShort() {
@@ -196,6 +407,7 @@ public final class Settings implements Serializable {
 
     public void setFormatInputTooShort(String formatInputTooShort) {
         this.formatInputTooShort = formatInputTooShort;
+        template = null;
     }
 
     public String getCreateSearchChoice() {
@@ -204,6 +416,7 @@ public final class Settings implements Serializable {
 
     public void setCreateSearchChoice(String createSearchChoice) {
         this.createSearchChoice = createSearchChoice;
+        template = null;
     }
 
     public String getInitSelection() {
@@ -212,6 +425,7 @@ public final class Settings implements Serializable {
 
     public void setInitSelection(String initSelection) {
         this.initSelection = initSelection;
+        template = null;
     }
 
     public String getQuery() {
@@ -220,6 +434,7 @@ public final class Settings implements Serializable {
 
     public void setQuery(String query) {
         this.query = query;
+        template = null;
     }
 
     public AjaxSettings getAjax() {
@@ -229,12 +444,14 @@ public final class Settings implements Serializable {
     public AjaxSettings getAjax(boolean createIfNotSet) {
         if (createIfNotSet && ajax == null) {
             ajax = new AjaxSettings();
+            template = null;
         }
         return ajax;
     }
 
     public void setAjax(AjaxSettings ajax) {
         this.ajax = ajax;
+        template = null;
     }
 
     public String getData() {
@@ -243,6 +460,7 @@ public final class Settings implements Serializable {
 
     public void setData(String data) {
         this.data = data;
+        template = null;
     }
 
     public String getTags() {
@@ -251,6 +469,7 @@ public final class Settings implements Serializable {
 
     public void setTags(String tags) {
         this.tags = tags;
+        template = null;
     }
 
     public Integer getMaximumSelectionSize() {
@@ -259,6 +478,7 @@ public final class Settings implements Serializable {
 
     public void setMaximumSelectionSize(Integer maximumSelectionSize) {
         this.maximumSelectionSize = maximumSelectionSize;
+        template = null;
     }
 
     public String getMatcher() {
@@ -267,6 +487,7 @@ public final class Settings implements Serializable {
 
     public void setMatcher(String matcher) {
         this.matcher = matcher;
+        template = null;
     }
 
     public String getTokenizer() {
@@ -275,6 +496,7 @@ public final class Settings implements Serializable {
 
     public void setTokenizer(String tokenizer) {
         this.tokenizer = tokenizer;
+        template = null;
     }
 
     public String getSortResults() {
@@ -283,6 +505,7 @@ public final class Settings implements Serializable {
 
     public void setSortResults(String sortResults) {
         this.sortResults = sortResults;
+        template = null;
     }
 
     public String getFormatSelectionTooBig() {
@@ -291,6 +514,7 @@ public final class Settings implements Serializable {
 
     public void setFormatSelectionTooBig(String formatSelectionTooBig) {
         this.formatSelectionTooBig = formatSelectionTooBig;
+        template = null;
     }
 
     public String getFormatResultCssClass() {
@@ -299,6 +523,7 @@ public final class Settings implements Serializable {
 
     public void setFormatResultCssClass(String formatResultCssClass) {
         this.formatResultCssClass = formatResultCssClass;
+        template = null;
     }
 
     public String getFormatLoadMore() {
@@ -307,6 +532,7 @@ public final class Settings implements Serializable {
 
     public void setFormatLoadMore(String formatLoadMore) {
         this.formatLoadMore = formatLoadMore;
+        template = null;
     }
 
     public String getFormatSearching() {
@@ -315,6 +541,7 @@ public final class Settings implements Serializable {
 
     public void setFormatSearching(String formatSearching) {
         this.formatSearching = formatSearching;
+        template = null;
     }
 
     public String getEscapeMarkup() {
@@ -323,6 +550,7 @@ public final class Settings implements Serializable {
 
     public void setEscapeMarkup(String escapeMarkup) {
         this.escapeMarkup = escapeMarkup;
+        template = null;
     }
 
     public String getWidth() {
@@ -331,6 +559,7 @@ public final class Settings implements Serializable {
 
     public void setWidth(String width) {
         this.width = width;
+        template = null;
     }
 
     public Boolean getOpenOnEnter() {
@@ -339,6 +568,7 @@ public final class Settings implements Serializable {
 
     public void setOpenOnEnter(Boolean openOnEnter) {
         this.openOnEnter = openOnEnter;
+        template = null;
     }
 
     public String getContainerCss() {
@@ -347,6 +577,7 @@ public final class Settings implements Serializable {
 
     public void setContainerCss(String containerCss) {
         this.containerCss = containerCss;
+        template = null;
     }
 
     public String getDropdownCss() {
@@ -355,6 +586,7 @@ public final class Settings implements Serializable {
 
     public void setDropdownCss(String dropdownCss) {
         this.dropdownCss = dropdownCss;
+        template = null;
     }
 
     public String getContainerCssClass() {
@@ -363,6 +595,7 @@ public final class Settings implements Serializable {
 
     public void setContainerCssClass(String containerCssClass) {
         this.containerCssClass = containerCssClass;
+        template = null;
     }
 
     public String getDropdownCssClass() {
@@ -371,6 +604,7 @@ public final class Settings implements Serializable {
 
     public void setDropdownCssClass(String dropdownCssClass) {
         this.dropdownCssClass = dropdownCssClass;
+        template = null;
     }
 
     public String getSeparator() {
@@ -379,14 +613,17 @@ public final class Settings implements Serializable {
 
     public void setSeparator(String separator) {
         this.separator = separator;
+        template = null;
     }
 
     public String[] getTokenSeparators() {
-        return tokenSeparators;
+        // copied so changes cannot bypass the cached Json
+        return tokenSeparators == null ? null : tokenSeparators.clone();
     }
 
     public void setTokenSeparators(String[] tokenSeparators) {
-        this.tokenSeparators = tokenSeparators;
+        this.tokenSeparators = tokenSeparators == null ? null : tokenSeparators.clone();
+        template = null;
     }
 
     public Boolean getDropdownAutoWidth() {
@@ -395,5 +632,6 @@ public final class Settings implements Serializable {
 
     public void setDropdownAutoWidth(Boolean dropdownAutoWidth) {
         this.dropdownAutoWidth = dropdownAutoWidth;
+        template = null;
     }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Canonical instances of strings that are equal for many components, such as the Json of their settings and the
+ * localized format functions. Strings are only weakly referenced, so those no longer used by any component are
+ * dropped. Each application has its own pool, see {@link ApplicationSettings}.
+ */
+final class StringPool {
+
+    private final Map<String, WeakReference<String>> strings = new WeakHashMap<String, WeakReference<String>>();
+
+    /**
+     * @param value string
+     * @return canonical instance of the string
+     */
+    synchronized String intern(String value) {
+        WeakReference<String> reference = strings.get(value);
+        String shared = reference == null ? null : reference.get();
+        if (shared == null) {
+            strings.put(value, new WeakReference<String>(value));
+            shared = value;
+        }
+        return shared;
+    }
+}
@@ -12,6 +12,10 @@
  */
 package com.vaynberg.wicket.select2;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.json.JSONException;
 import org.json.JSONWriter;
 
@@ -31,4 +35,26 @@ public abstract class TextChoiceProvider<T> extends ChoiceProvider<T> {
     public final void toJson(T choice, JSONWriter writer) throws JSONException {
         writer.key("id").value(getId(choice)).key("text").value(getDisplayText(choice));
     }
+
+    @Override
+    public String getJsonCacheKey(T choice) {
+        return String.valueOf(getId(choice));
+    }
+
+    /**
+     * Converts the ids with {@link #toChoices(Collection)} and keys the choices by their {@link #getId(Object)}, so
+     * the order of the converted choices does not matter. Choices whose id was not requested are left out. Only used
+     * once {@link #supportsBatching()} is overridden to return {@code true}.
+     */
+    @Override
+    public Map<String, T> toChoiceMap(Collection<String> ids) {
+        Map<String, T> choices = new HashMap<String, T>();
+        for (T choice : toChoices(ids)) {
+            String id = String.valueOf(getId(choice));
+            if (ids.contains(id)) {
+                choices.put(id, choice);
+            }
+        }
+        return choices;
+    }
 }
@@ -0,0 +1,466 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+
+/**
+ * A {@link JSONWriter} that encodes Json straight into UTF-8 bytes. Output is collected in a byte buffer that is
+ * written to the underlying stream whenever it fills up and on {@link #flush()}. Strings that consist of printable
+ * ASCII characters, such as most ids and labels, are copied into the buffer without any further processing.
+ * <p>
+ * Output is the same as that of {@link JSONWriter} except that duplicate keys within an object are not detected.
+ * All public methods of {@link JSONWriter} are overridden. The inherited {@code mode} field is kept up to date, and
+ * text appended to the inherited {@code writer} is encoded into the same buffer, so subclasses can use both.
+ * <p>
+ * The byte buffer can be passed in by the caller and reused for another writer once this one has been flushed.
+ */
+public class Utf8JsonWriter extends JSONWriter {
+
+    private static final int MAX_DEPTH = 200;
+
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count;
+
+    /**
+     * Modes of the open arrays and objects: {@code 'a'} array, {@code 'o'} object awaiting a key, {@code 'k'} object
+     * awaiting a value
+     */
+    private final char[] stack = new char[MAX_DEPTH];
+    private int top;
+    private boolean comma;
+    private boolean done;
+
+    /**
+     * Constructs a writer with an 8k buffer
+     *
+     * @param out stream the Json is written to
+     */
+    public Utf8JsonWriter(OutputStream out) {
+        this(out, 8192);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param out        stream the Json is written to
+     * @param bufferSize size of the byte buffer, at least 16
+     */
+    public Utf8JsonWriter(OutputStream out, int bufferSize) {
+        this(out, new byte[Math.max(16, bufferSize)]);
+    }
+
+    /**
+     * Constructs a writer that collects output in the given buffer. The buffer may be reused once the writer has been
+     * flushed.
+     *
+     * @param out    stream the Json is written to
+     * @param buffer byte buffer, at least 16 bytes long
+     */
+    public Utf8JsonWriter(OutputStream out, byte[] buffer) {
+        super(null);
+        if (out == null) {
+            throw new IllegalArgumentException("Argument 'out' cannot be null");
+        }
+        if (buffer == null || buffer.length < 16) {
+            throw new IllegalArgumentException("Argument 'buffer' must be at least 16 bytes long");
+        }
+        this.out = out;
+        this.buffer = buffer;
+        this.writer = new Appendable() {
+            @Override
+            public Appendable append(CharSequence csq) {
+                writeRaw(String.valueOf(csq));
+                return this;
+            }
+
+            @Override
+            public Appendable append(CharSequence csq, int start, int end) {
+                writeRaw(String.valueOf(csq).substring(start, end));
+                return this;
+            }
+
+            @Override
+            public Appendable append(char c) {
+                writeRaw(String.valueOf(c));
+                return this;
+            }
+        };
+    }
+
+    /**
+     * Writes buffered bytes to the underlying stream and flushes it
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public JSONWriter array() throws JSONException {
+        beginValue("Misplaced array.");
+        push('a');
+        writeByte('[');
+        return this;
+    }
+
+    @Override
+    public JSONWriter endArray() throws JSONException {
+        return end('a', ']', "Misplaced endArray.");
+    }
+
+    @Override
+    public JSONWriter object() throws JSONException {
+        beginValue("Misplaced object.");
+        push('o');
+        writeByte('{');
+        return this;
+    }
+
+    @Override
+    public JSONWriter endObject() throws JSONException {
+        return end('o', '}', "Misplaced endObject.");
+    }
+
+    @Override
+    public JSONWriter key(String string) throws JSONException {
+        if (string == null) {
+            throw new JSONException("Null key.");
+        }
+        if (top == 0 || stack[top - 1] != 'o') {
+            throw new JSONException("Misplaced key.");
+        }
+        if (comma) {
+            writeByte(',');
+        }
+        writeString(string);
+        writeByte(':');
+        stack[top - 1] = 'k';
+        mode = 'k';
+        comma = false;
+        return this;
+    }
+
+    @Override
+    public JSONWriter value(boolean b) throws JSONException {
+        beginScalar();
+        writeBytes(b ? TRUE : FALSE);
+        endValue();
+        return this;
+    }
+
+    @Override
+    public JSONWriter value(long l) throws JSONException {
+        beginScalar();
+        writeLong(l);
+        endValue();
+        return this;
+    }
+
+    @Override
+    public JSONWriter value(double d) throws JSONException {
+        return value(Double.valueOf(d));
+    }
+
+    @Override
+    public JSONWriter value(Object object) throws JSONException {
+        if (object instanceof String) {
+            beginScalar();
+            writeString((String) object);
+        } else if (object instanceof Integer || object instanceof Long || object instanceof Short
+                || object instanceof Byte) {
+            beginScalar();
+            writeLong(((Number) object).longValue());
+        } else if (object instanceof Boolean) {
+            beginScalar();
+            writeBytes((Boolean) object ? TRUE : FALSE);
+        } else if (object == null) {
+            beginScalar();
+            writeBytes(NULL);
+        } else {
+            // JSONString, numbers, maps, collections, beans - formatted exactly as JSONWriter would
+            String json = JSONObject.valueToString(object);
+            beginScalar();
+            writeRaw(json);
+        }
+        endValue();
+        return this;
+    }
+
+    /**
+     * Like {@link JSONWriter}, plain values are only accepted within an array or object
+     */
+    private void beginScalar() {
+        if (top == 0) {
+            throw new JSONException("Value out of sequence.");
+        }
+        beginValue("Value out of sequence.");
+    }
+
+    private void beginValue(String error) {
+        if (done) {
+            throw new JSONException(error);
+        }
+        if (top > 0) {
+            char mode = stack[top - 1];
+            if (mode == 'o') {
+                throw new JSONException(error);
+            }
+            if (mode == 'a' && comma) {
+                writeByte(',');
+            }
+        }
+    }
+
+    private void endValue() {
+        if (top == 0) {
+            done = true;
+            mode = 'd';
+        } else {
+            if (stack[top - 1] == 'k') {
+                stack[top - 1] = 'o';
+            }
+            mode = stack[top - 1];
+            comma = true;
+        }
+    }
+
+    private void push(char mode) {
+        if (top == MAX_DEPTH) {
+            throw new JSONException("Nesting too deep.");
+        }
+        stack[top++] = mode;
+        this.mode = mode;
+        comma = false;
+    }
+
+    private JSONWriter end(char mode, char c, String error) {
+        if (top == 0 || stack[top - 1] != mode) {
+            throw new JSONException(error);
+        }
+        top--;
+        writeByte(c);
+        endValue();
+        return this;
+    }
+
+    private void writeString(String string) {
+        writeByte('"');
+        int length = string.length();
+        int i = 0;
+
+        // fast path: printable ascii that needs no escaping
+        while (i < length) {
+            int room = buffer.length - count;
+            if (room == 0) {
+                drain();
+                continue;
+            }
+            int stop = Math.min(length, i + room);
+            while (i < stop) {
+                char c = string.charAt(i);
+                if (c < 0x20 || c >= 0x7f || c == '"' || c == '\\' || c == '/') {
+                    break;
+                }
+                buffer[count++] = (byte) c;
+                i++;
+            }
+            if (i < stop) {
+                break;
+            }
+        }
+
+        char previous = i > 0 ? string.charAt(i - 1) : 0;
+        for (; i < length; i++) {
+            char c = string.charAt(i);
+            ensure(12);
+            if (c >= 0x20 && c < 0x7f && c != '"' && c != '\\' && c != '/') {
+                buffer[count++] = (byte) c;
+            } else {
+                writeSpecial(string, i, c, previous);
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                    i++;
+                }
+            }
+            previous = string.charAt(i);
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Writes a character that is escaped or needs a multi-byte encoding, following {@code JSONObject.quote()}
+     */
+    private void writeSpecial(String string, int i, char c, char previous) {
+        switch (c) {
+            case '"':
+            case '\\':
+                buffer[count++] = '\\';
+                buffer[count++] = (byte) c;
+                return;
+            case '/':
+                if (previous == '<') {
+                    buffer[count++] = '\\';
+                }
+                buffer[count++] = '/';
+                return;
+            case '\b':
+                buffer[count++] = '\\';
+                buffer[count++] = 'b';
+                return;
+            case '\t':
+                buffer[count++] = '\\';
+                buffer[count++] = 't';
+                return;
+            case '\n':
+                buffer[count++] = '\\';
+                buffer[count++] = 'n';
+                return;
+            case '\f':
+                buffer[count++] = '\\';
+                buffer[count++] = 'f';
+                return;
+            case '\r':
+                buffer[count++] = '\\';
+                buffer[count++] = 'r';
+                return;
+            default:
+        }
+
+        if (c < 0x20 || (c >= 0x80 && c < 0xa0) || (c >= 0x2000 && c < 0x2100)) {
+            writeUnicodeEscape(c);
+        } else if (c < 0x80) {
+            buffer[count++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[count++] = (byte) (0xc0 | (c >> 6));
+            buffer[count++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+            if (Character.isHighSurrogate(c) && i + 1 < string.length()
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, string.charAt(i + 1));
+                buffer[count++] = (byte) (0xf0 | (cp >> 18));
+                buffer[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buffer[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (cp & 0x3f));
+            } else {
+                // unpaired surrogates cannot be encoded in UTF-8, keep them as escapes
+                writeUnicodeEscape(c);
+            }
+        } else {
+            buffer[count++] = (byte) (0xe0 | (c >> 12));
+            buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    private void writeUnicodeEscape(char c) {
+        buffer[count++] = '\\';
+        buffer[count++] = 'u';
+        buffer[count++] = HEX[(c >> 12) & 0xf];
+        buffer[count++] = HEX[(c >> 8) & 0xf];
+        buffer[count++] = HEX[(c >> 4) & 0xf];
+        buffer[count++] = HEX[c & 0xf];
+    }
+
+    private void writeLong(long l) {
+        if (l == Long.MIN_VALUE) {
+            writeRaw("-9223372036854775808");
+            return;
+        }
+        ensure(20);
+        if (l < 0) {
+            buffer[count++] = '-';
+            l = -l;
+        }
+        int digits = 1;
+        for (long rest = l / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int position = count + digits;
+        count = position;
+        do {
+            buffer[--position] = (byte) ('0' + (l % 10));
+            l /= 10;
+        } while (l > 0);
+    }
+
+    /**
+     * Writes text that is already valid Json
+     */
+    private void writeRaw(String json) {
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            ensure(4);
+            if (c < 0x80) {
+                buffer[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xc0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < json.length()
+                    && Character.isLowSurrogate(json.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, json.charAt(++i));
+                buffer[count++] = (byte) (0xf0 | (cp >> 18));
+                buffer[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buffer[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer[count++] = '?';
+            } else {
+                buffer[count++] = (byte) (0xe0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void writeByte(char c) {
+        ensure(1);
+        buffer[count++] = (byte) c;
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.length - count < bytes) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        if (count > 0) {
+            try {
+                out.write(buffer, 0, count);
+            } catch (IOException e) {
+                throw new JSONException(e);
+            }
+            count = 0;
+        }
+    }
+}
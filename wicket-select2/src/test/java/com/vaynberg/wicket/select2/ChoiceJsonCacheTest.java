@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ChoiceJsonCacheTest {
+
+    @Test
+    public void testStaysWithinBudget() throws Exception {
+        ChoiceJsonCache cache = new ChoiceJsonCache(20);
+        cache.put("a", "{\"id\":\"a\"}");
+        cache.put("b", "{\"id\":\"b\"}");
+        cache.get("a");
+        cache.put("c", "{\"id\":\"c\"}");
+
+        assertEquals(2, cache.size());
+        assertEquals(20, cache.getCharCount());
+        assertNull(cache.get("b"));
+        assertEquals("{\"id\":\"a\"}", cache.get("a"));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        ChoiceJsonCache cache = new ChoiceJsonCache();
+        cache.put("a", "{\"id\":\"a\"}");
+        cache.put("a", "{\"id\":\"a\",\"text\":\"A\"}");
+        cache.invalidate("a");
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getCharCount());
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.wicket.util.tester.WicketTester;
+import org.junit.Test;
+
+import com.vaynberg.wicket.select2.json.Utf8JsonWriter;
+
+public class GroupedResponseTest {
+
+    @Test
+    public void testGroupKeepsOrderOfFirstAppearance() throws Exception {
+        GroupedResponse<Item> response = GroupedResponse.group(Arrays.asList(new Item("1", "b"), new Item("2", null),
+                new Item("3", "a"), new Item("4", "b")));
+
+        // leading ungrouped segment, then b, ungrouped and a in order of appearance
+        assertEquals(4, response.getGroupCount());
+        assertEquals(0, response.getGroupChoices(0).size());
+        assertEquals("b", response.getGroupName(1));
+        assertEquals(Arrays.asList("1", "4"), ids(response.getGroupChoices(1)));
+        assertEquals("", response.getGroupName(2));
+        assertEquals("a", response.getGroupName(3));
+    }
+
+    @Test
+    public void testWritesGroupsInOrder() throws Exception {
+        GroupedResponse<Item> response = new GroupedResponse<Item>(2);
+        response.add(new Item("0", null));
+        response.startGroup("z").add(new Item("1", "z")).add(new Item("2", "z"));
+        response.setGroupHasMore(true);
+        response.startGroup("empty");
+        response.startGroup("a").add(new Item("3", "a"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utf8JsonWriter json = new Utf8JsonWriter(out);
+        json.array();
+        new QueryHandler<Item>(new ItemProvider(), 2).addGroups(json, response);
+        json.endArray();
+        json.flush();
+
+        assertEquals("[{\"id\":\"0\",\"text\":\"0\"},"
+                + "{\"text\":\"z\",\"children\":[{\"id\":\"1\",\"text\":\"1\"},{\"id\":\"2\",\"text\":\"2\"}],"
+                + "\"more\":true},{\"text\":\"a\",\"children\":[{\"id\":\"3\",\"text\":\"3\"}]}]", out.toString("UTF-8"));
+        assertTrue(response.getHasMore());
+    }
+
+    @Test
+    public void testDecoratorsKeepGroupsPerGroupLimit() throws Exception {
+        WicketTester tester = new WicketTester();
+        try {
+            GroupingProvider delegate = new GroupingProvider();
+            ChoiceProvider<Item> provider = new CachingChoiceProvider<Item>(new CoalescingChoiceProvider<Item>(delegate,
+                    "items"), "items");
+            assertTrue(provider.supportsGrouping());
+
+            // the second query is answered from the cache
+            for (int i = 0; i < 2; i++) {
+                GroupedResponse<Item> response = new GroupedResponse<Item>(2);
+                provider.query("", 0, response);
+                assertEquals(2, response.getGroupCount());
+                assertEquals(Arrays.asList("0"), ids(response.getGroupChoices(0)));
+                assertEquals("z", response.getGroupName(1));
+                assertEquals(Arrays.asList("1", "2"), ids(response.getGroupChoices(1)));
+                assertTrue(response.getGroupHasMore(1));
+                assertTrue(response.getHasMore());
+            }
+            assertEquals(1, delegate.queries);
+
+            GroupedResponse<Item> response = new GroupedResponse<Item>(1);
+            provider.query("", 0, response);
+            assertEquals(Arrays.asList("1"), ids(response.getGroupChoices(1)));
+            assertEquals(2, delegate.queries);
+        } finally {
+            tester.destroy();
+        }
+    }
+
+    private static Collection<String> ids(Collection<Item> items) {
+        String[] ids = new String[items.size()];
+        int i = 0;
+        for (Item item : items) {
+            ids[i++] = item.id;
+        }
+        return Arrays.asList(ids);
+    }
+
+    private static class Item extends GroupedValue {
+        final String id;
+
+        Item(String id, String group) {
+            super(group);
+            this.id = id;
+        }
+    }
+
+    private static class ItemProvider extends TextChoiceProvider<Item> {
+        @Override
+        protected String getDisplayText(Item choice) {
+            return choice.id;
+        }
+
+        @Override
+        protected Object getId(Item choice) {
+            return choice.id;
+        }
+
+        @Override
+        public void query(String term, int page, Response<Item> response) {
+        }
+
+        @Override
+        public Collection<Item> toChoices(Collection<String> ids) {
+            return null;
+        }
+    }
+
+    private static class GroupingProvider extends ItemProvider {
+        int queries;
+
+        @Override
+        public boolean supportsGrouping() {
+            return true;
+        }
+
+        @Override
+        public void query(String term, int page, Response<Item> response) {
+            queries++;
+            GroupedResponse<Item> grouped = (GroupedResponse<Item>) response;
+            grouped.add(new Item("0", null));
+            grouped.startGroup("z");
+            for (int i = 1; i <= grouped.getGroupLimit(); i++) {
+                grouped.add(new Item(String.valueOf(i), "z"));
+            }
+            grouped.setGroupHasMore(true);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.vaynberg.wicket.select2;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class InMemoryQueryCacheTest {
+
+    private static CachedResponse<String> response(long created, String... ids) {
+        return new CachedResponse<String>(Arrays.asList(ids), false, new HashSet<String>(Arrays.asList(ids)), created);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        InMemoryQueryCache<String> cache = new InMemoryQueryCache<String>(2, 0);
+        cache.put("a", response(0, "A"));
+        cache.put("b", response(0, "B"));
+        cache.get("a");
+        cache.put("c", response(0, "C"));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void testExpiresEntries() throws Exception {
+        final long[] now = {1000};
+        InMemoryQueryCache<String> cache = new InMemoryQueryCache<String>(10, 100) {
+            @Override
+            protected long now() {
+                return now[0];
+            }
+        };
+        cache.put("a", response(1000, "A"));
+
+        now[0] = 1099;
+        assertNotNull(cache.get("a"));
+        now[0] = 1100;
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidateById() throws Exception {
+        InMemoryQueryCache<String> cache = new InMemoryQueryCache<String>(10, 0);
+        cache.put("a", response(0, "A", "B"));
+        cache.put("c", response(0, "C"));
+        cache.put("unknown", new CachedResponse<String>(Collections.singletonList("X"), false, null, 0));
+
+        cache.invalidate("B");
+
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNull(cache.get("unknown"));
+    }
+
+    @Test
+    public void testCountsHitsAndMisses() throws Exception {
+        InMemoryQueryCache<String> cache = new InMemoryQueryCache<String>();
+        cache.get("a");
+        cache.put("a", response(System.currentTimeMillis(), "A"));
+        cache.get("a");
+        cache.get("a");
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+}
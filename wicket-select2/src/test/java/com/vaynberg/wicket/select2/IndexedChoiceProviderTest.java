@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class IndexedChoiceProviderTest {
+
+    private static final List<String> WORDS = Arrays.asList("Alabama", "Alaska", "Arizona", "Arkansas", "California",
+            "Colorado", "Connecticut", "Delaware", "Florida", "Georgia", "Hawaii", "Idaho", "Illinois", "Indiana",
+            "Iowa", "Kansas", "Kentucky", "Louisiana", "Maine", "Maryland", "Massachusetts", "Michigan", "Minnesota",
+            "Mississippi", "Missouri", "Montana", "Nebraska", "Nevada", "New Hampshire", "New Jersey", "New Mexico",
+            "New York", "North Carolina", "North Dakota", "Ohio", "Oklahoma", "Oregon", "Pennsylvania", "Rhode Island",
+            "South Carolina", "South Dakota", "Tennessee", "Texas", "Utah", "Vermont", "Virginia", "Washington",
+            "West Virginia", "Wisconsin", "Wyoming");
+
+    private final IndexedChoiceProvider<String> provider = new IndexedChoiceProvider<String>(WORDS, 3) {
+        @Override
+        protected String getDisplayText(String choice) {
+            return choice;
+        }
+
+        @Override
+        protected Object getId(String choice) {
+            return choice.toLowerCase();
+        }
+    };
+
+    @Test
+    public void testMatchesSameChoicesAsScan() {
+        for (String term : Arrays.asList("", "a", "N", "ss", "sas", "ississ", "Caro", "ina", "zz", "New Y")) {
+            List<String> expected = new ArrayList<String>();
+            for (String word : WORDS) {
+                if (word.toUpperCase().contains(term.toUpperCase())) {
+                    expected.add(word);
+                }
+            }
+
+            List<String> paged = new ArrayList<String>();
+            for (int page = 0; ; page++) {
+                Response<String> response = new Response<String>();
+                provider.query(term, page, response);
+                paged.addAll(response.getResults());
+                if (!response.getHasMore()) {
+                    break;
+                }
+            }
+            assertEquals(term, expected, paged);
+
+            List<String> resumed = new ArrayList<String>();
+            String cursor = null;
+            for (int page = 0; ; page++) {
+                Response<String> response = new Response<String>();
+                provider.query(term, cursor, page, response);
+                resumed.addAll(response.getResults());
+                if (!response.getHasMore()) {
+                    break;
+                }
+                cursor = response.getCursor();
+            }
+            assertEquals(term, expected, resumed);
+        }
+    }
+
+    @Test
+    public void testPaging() {
+        Response<String> response = new Response<String>();
+        provider.query("ska", 0, response);
+        assertEquals(Arrays.asList("Alaska", "Nebraska"), response.getResults());
+        assertFalse(response.getHasMore());
+
+        response = new Response<String>();
+        provider.query("o", 1, response);
+        assertEquals(3, response.size());
+        assertTrue(response.getHasMore());
+    }
+
+    @Test
+    public void testToChoices() {
+        assertEquals(Arrays.asList("Texas", "Ohio"), provider.toChoices(Arrays.asList("texas", "unknown", "ohio")));
+    }
+}
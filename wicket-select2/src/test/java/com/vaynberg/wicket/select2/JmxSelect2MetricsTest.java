@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class JmxSelect2MetricsTest {
+
+    @Test
+    public void testPercentilesAreBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(3000000); // 3ms, in the bucket up to 4.096ms
+        }
+        histogram.record(100000000);
+        histogram.record(200000000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(4.096, histogram.getPercentileMillis(0.5), 0.0001);
+        assertEquals(4.096, histogram.getPercentileMillis(0.98), 0.0001);
+        assertEquals(131.072, histogram.getPercentileMillis(0.99), 0.0001);
+        // capped by the longest duration
+        assertEquals(200, histogram.getPercentileMillis(1), 0.0001);
+    }
+
+    @Test
+    public void testPublishesProviderMetrics() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        JmxSelect2Metrics metrics = new JmxSelect2Metrics(server, "test");
+        metrics.queryCompleted("countries", 2000000, 1000000, 10, true, 600);
+        metrics.queryCompleted("countries", 2000000, 1000000, 4, false, 200);
+        metrics.cacheLookup("countries", Select2Metrics.QUERY_CACHE, true);
+        metrics.cacheLookup("countries", Select2Metrics.QUERY_CACHE, false);
+        metrics.cacheLookup("countries", Select2Metrics.QUERY_CACHE, false);
+        metrics.cacheLookup("countries", Select2Metrics.QUERY_CACHE, true);
+
+        ObjectName name = metrics.getObjectName("countries");
+        assertEquals(2L, server.getAttribute(name, "QueryCount"));
+        assertEquals(0.5, (Double) server.getAttribute(name, "HasMoreRatio"), 0.0001);
+        assertEquals(7, (Double) server.getAttribute(name, "MeanResultCount"), 0.0001);
+        assertEquals(800L, server.getAttribute(name, "ResponseBytes"));
+        assertEquals(0.5, (Double) server.getAttribute(name, "QueryCacheHitRatio"), 0.0001);
+        assertEquals(0d, (Double) server.getAttribute(name, "JsonCacheHitRatio"), 0.0001);
+
+        server.invoke(name, "reset", null, null);
+        assertEquals(0L, server.getAttribute(name, "QueryCount"));
+
+        metrics.unregister();
+        assertFalse(server.isRegistered(name));
+        assertTrue(server.queryNames(new ObjectName(JmxSelect2Metrics.DOMAIN + ":*"), null).isEmpty());
+    }
+
+    @Test
+    public void testRegistrationFailureDoesNotFailQueries() throws Exception {
+        MBeanServer server = (MBeanServer) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {MBeanServer.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("isRegistered")) {
+                            return false;
+                        }
+                        throw new SecurityException("not allowed");
+                    }
+                });
+        JmxSelect2Metrics metrics = new JmxSelect2Metrics(server, "test");
+        metrics.queryCompleted("countries", 2000000, 1000000, 10, true, 600);
+        metrics.queryCompleted("countries", 2000000, 1000000, 4, false, 200);
+        metrics.unregister();
+    }
+}
@@ -0,0 +1,79 @@
+package com.vaynberg.wicket.select2;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class QueryCoalescerTest {
+
+    @Test
+    public void testConcurrentIdenticalQueriesShareExecution() throws Exception {
+        final QueryCoalescer<String> coalescer = new QueryCoalescer<String>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+
+        final Callable<CachedResponse<String>> query = new Callable<CachedResponse<String>>() {
+            @Override
+            public CachedResponse<String> call() throws Exception {
+                runs.incrementAndGet();
+                started.countDown();
+                release.await();
+                return new CachedResponse<String>(Collections.singletonList("A"), false, null, 0);
+            }
+        };
+
+        final AtomicReference<CachedResponse<String>> first = new AtomicReference<CachedResponse<String>>();
+        Thread leader = new Thread() {
+            @Override
+            public void run() {
+                first.set(coalescer.execute("0:a", query));
+            }
+        };
+        leader.start();
+        started.await();
+
+        final AtomicReference<CachedResponse<String>> second = new AtomicReference<CachedResponse<String>>();
+        Thread follower = new Thread() {
+            @Override
+            public void run() {
+                second.set(coalescer.execute("0:a", query));
+            }
+        };
+        follower.start();
+        while (coalescer.getCoalescedCount() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        leader.join();
+        follower.join();
+
+        assertEquals(1, runs.get());
+        assertEquals(1, coalescer.getExecutionCount());
+        assertSame(first.get(), second.get());
+    }
+
+    @Test
+    public void testResultsAreNotRetained() throws Exception {
+        QueryCoalescer<String> coalescer = new QueryCoalescer<String>();
+        Callable<CachedResponse<String>> query = new Callable<CachedResponse<String>>() {
+            @Override
+            public CachedResponse<String> call() throws Exception {
+                return new CachedResponse<String>(Collections.<String>emptyList(), false, null, 0);
+            }
+        };
+
+        coalescer.execute("0:a", query);
+        coalescer.execute("0:a", query);
+
+        assertEquals(2, coalescer.getExecutionCount());
+        assertEquals(0, coalescer.getCoalescedCount());
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.Session;
+import org.apache.wicket.mock.MockWebRequest;
+import org.apache.wicket.mock.MockWebResponse;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.request.Url;
+import org.apache.wicket.util.tester.WicketTester;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryHandlerTest {
+
+    private static final String MARKUP = "<html><head></head><body>"
+            + "<input type=\"hidden\" wicket:id=\"select\"/></body></html>";
+
+    private WicketTester tester;
+
+    @Before
+    public void setUp() {
+        tester = new WicketTester();
+    }
+
+    @After
+    public void tearDown() {
+        tester.destroy();
+    }
+
+    @Test
+    public void testTimedOutQueryIsNotCached() throws Exception {
+        ApplicationSettings.get().setQueryTimeoutMillis(50);
+        MockWebResponse response = query(new CachedProvider() {
+            @Override
+            public void query(String term, int page, Response<String> response) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                response.add(term);
+            }
+        });
+
+        assertEquals("{\"results\":[],\"more\":false}", new String(response.getBinaryResponse(), "UTF-8"));
+        assertFalse(response.getHeader("Cache-Control").contains("max-age=60"));
+        assertNull(response.getHeader("ETag"));
+    }
+
+    @Test
+    public void testCompletedQueryIsCached() throws Exception {
+        MockWebResponse response = query(new CachedProvider() {
+            @Override
+            public void query(String term, int page, Response<String> response) {
+                response.add(term);
+            }
+        });
+
+        assertTrue(new String(response.getBinaryResponse(), "UTF-8").contains("\"a\""));
+        assertEquals("private, max-age=60", response.getHeader("Cache-Control"));
+        assertEquals("W/\"1\"", response.getHeader("ETag"));
+    }
+
+    @Test
+    public void testRevalidationIsNotThrottled() throws Exception {
+        ApplicationSettings.get().setQueryRateLimit(0.001, 1);
+        Session.get().bind();
+        CachedProvider provider = new CachedProvider() {
+            @Override
+            public void query(String term, int page, Response<String> response) {
+                response.add(term);
+            }
+        };
+
+        assertNull(query(provider).getStatus());
+        for (int i = 0; i < 3; i++) {
+            MockWebRequest request = new MockWebRequest(Url.parse("http://localhost/?term=a"));
+            request.setHeader("If-None-Match", "W/\"1\"");
+            MockWebResponse response = new MockWebResponse();
+            new QueryHandler<String>(provider).respond(request, response);
+            assertEquals(304, (int) response.getStatus());
+        }
+        assertEquals(429, (int) query(provider).getStatus());
+    }
+
+    @Test
+    public void testResponseBelowThresholdIsNotCompressed() throws Exception {
+        ApplicationSettings.get().setQueryCompressionThreshold(1000);
+        MockWebResponse response = query(new ManyChoicesProvider(10), "term=a", "gzip, deflate");
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertEquals(json(10), new String(response.getBinaryResponse(), "UTF-8"));
+    }
+
+    @Test
+    public void testResponseAboveThresholdIsCompressed() throws Exception {
+        ApplicationSettings.get().setQueryCompressionThreshold(2000);
+        MockWebResponse response = query(new ManyChoicesProvider(200), "term=a", "deflate, gzip;q=0.5");
+
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertEquals(json(200), gunzip(response.getBinaryResponse()));
+    }
+
+    @Test
+    public void testResponseIsNotCompressedForRefusedGzip() throws Exception {
+        ApplicationSettings.get().setQueryCompressionThreshold(100);
+        MockWebResponse response = query(new ManyChoicesProvider(200), "term=a", "gzip;q=0, identity");
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertEquals(json(200), new String(response.getBinaryResponse(), "UTF-8"));
+    }
+
+    @Test
+    public void testCursorIsPassedBackAsContext() throws Exception {
+        final List<String> calls = new ArrayList<String>();
+        StringTextChoiceProvider provider = new StringTextChoiceProvider() {
+            @Override
+            public void query(String term, String cursor, int page, Response<String> response) {
+                calls.add(term + "|" + cursor + "|" + page);
+                response.add(term + page);
+                response.setHasMore(true);
+                response.setCursor(term + page + "&last=\"x\"");
+            }
+
+            @Override
+            public void query(String term, int page, Response<String> response) {
+                throw new AssertionError("the cursor query is used");
+            }
+        };
+
+        MockWebResponse first = query(provider, "term=a&page=1", null);
+        JSONObject json = new JSONObject(new String(first.getBinaryResponse(), "UTF-8"));
+        String context = json.getString("context");
+        assertEquals("a0&last=\"x\"", context);
+
+        // select2 sends the context back as the cursor parameter of the next page
+        MockWebResponse second = query(provider, "term=a&page=2&cursor=" + URLEncoder.encode(context, "UTF-8"), null);
+        assertEquals("a1&last=\"x\"", new JSONObject(new String(second.getBinaryResponse(), "UTF-8"))
+                .getString("context"));
+        // select2 pages start at 1, provider pages at 0
+        assertEquals(Arrays.asList("a|null|0", "a|a0&last=\"x\"|1"), calls);
+    }
+
+    @Test
+    public void testComponentQueriesAreThrottledAfterRevalidation() throws Exception {
+        ApplicationSettings.get().setQueryRateLimit(0.001, 1);
+        TestPage page = new TestPage(MARKUP);
+        Select2Choice<String> select = new Select2Choice<String>("select", Model.<String> of(), new TermProvider());
+        page.add(select);
+        tester.startPage(page);
+        tester.getSession().bind();
+
+        assertEquals(200, query(select, null));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(304, query(select, "W/\"1\""));
+        }
+        assertEquals(429, query(select, null));
+    }
+
+    @Test
+    public void testRejectedComponentQueryDoesNotCancelRunningQuery() throws Exception {
+        ApplicationSettings.get().setQueryCancellation(true).setQueryRateLimit(0.001, 1);
+        TestPage page = new TestPage(MARKUP);
+        Select2Choice<String> select = new Select2Choice<String>("select", Model.<String> of(),
+                new CapturingProvider());
+        page.add(select);
+        tester.startPage(page);
+        tester.getSession().bind();
+
+        assertEquals(200, query(select, null));
+        Response<String> running = CapturingProvider.captured;
+        assertFalse(running.isCancelled());
+
+        assertEquals(429, query(select, null));
+        assertFalse(running.isCancelled());
+
+        // an accepted query supersedes the running one
+        ApplicationSettings.get().setQueryRateLimit(0, 0);
+        assertEquals(200, query(select, null));
+        assertTrue(running.isCancelled());
+        assertFalse(CapturingProvider.captured.isCancelled());
+    }
+
+    @Test
+    public void testRejectedSharedQueryDoesNotCancelRunningQuery() throws Exception {
+        ApplicationSettings.get().setQueryCancellation(true).setQueryRateLimit(0.001, 1);
+        Session.get().bind();
+        CapturingProvider provider = new CapturingProvider();
+        String parameters = "term=a&" + Select2QueryResource.QUERY_KEY_PARAMETER + "=1-select";
+
+        assertNull(query(provider, parameters, null).getStatus());
+        Response<String> running = CapturingProvider.captured;
+
+        assertEquals(429, (int) query(provider, parameters, null).getStatus());
+        assertFalse(running.isCancelled());
+
+        ApplicationSettings.get().setQueryRateLimit(0, 0);
+        assertNull(query(provider, parameters, null).getStatus());
+        assertTrue(running.isCancelled());
+    }
+
+    private int query(Component component, String etag) {
+        tester.getRequest().setParameter("term", "a");
+        if (etag != null) {
+            tester.getRequest().setHeader("If-None-Match", etag);
+        }
+        tester.executeListener(component);
+        return tester.getLastResponse().getStatus();
+    }
+
+    private MockWebResponse query(ChoiceProvider<String> provider) {
+        return query(provider, "term=a", null);
+    }
+
+    private MockWebResponse query(ChoiceProvider<String> provider, String parameters, String acceptEncoding) {
+        MockWebRequest request = new MockWebRequest(Url.parse("http://localhost/?" + parameters));
+        if (acceptEncoding != null) {
+            request.setHeader("Accept-Encoding", acceptEncoding);
+        }
+        MockWebResponse response = new MockWebResponse();
+        new QueryHandler<String>(provider).respond(request, response);
+        return response;
+    }
+
+    private static String json(int choices) {
+        StringBuilder json = new StringBuilder("{\"results\":[");
+        for (int i = 0; i < choices; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"id\":\"").append(i).append("\",\"text\":\"").append(i)
+                    .append("\"}");
+        }
+        return json.append("],\"more\":false}").toString();
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * Answers every query with the ids {@code 0} to {@code count - 1}
+     */
+    private static class ManyChoicesProvider extends StringTextChoiceProvider {
+        private final int count;
+
+        ManyChoicesProvider(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void query(String term, int page, Response<String> response) {
+            for (int i = 0; i < count; i++) {
+                response.add(String.valueOf(i));
+            }
+            response.setHasMore(false);
+        }
+    }
+
+    /**
+     * Keeps the response of the last query, which remains cancellable after the query has been answered
+     */
+    private static class CapturingProvider extends StringTextChoiceProvider {
+        static Response<String> captured;
+
+        @Override
+        public void query(String term, int page, Response<String> response) {
+            captured = response;
+            response.add(term);
+        }
+    }
+
+    /**
+     * Cached provider that answers each query with its term
+     */
+    private static class TermProvider extends CachedProvider {
+        @Override
+        public void query(String term, int page, Response<String> response) {
+            response.add(term);
+        }
+    }
+
+    private abstract static class CachedProvider extends StringTextChoiceProvider {
+        @Override
+        public int getCacheMaxAge() {
+            return 60;
+        }
+
+        @Override
+        public String getVersion() {
+            return "1";
+        }
+    }
+}
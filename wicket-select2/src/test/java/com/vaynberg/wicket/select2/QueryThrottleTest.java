@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.vaynberg.wicket.select2.QueryThrottle.TokenBucket;
+
+public class QueryThrottleTest {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void testBurstThenSustainedRate() {
+        TokenBucket bucket = new TokenBucket();
+        long now = 5 * SECOND;
+
+        // full bucket allows a burst
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.acquire(now, 2, 3));
+        }
+        assertEquals(1, bucket.acquire(now, 2, 3));
+
+        // two tokens per second
+        assertEquals(0, bucket.acquire(now + SECOND / 2, 2, 3));
+        assertEquals(1, bucket.acquire(now + SECOND / 2, 2, 3));
+
+        // refills up to the burst only
+        now += 60 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.acquire(now, 2, 3));
+        }
+        assertEquals(1, bucket.acquire(now, 2, 3));
+    }
+
+    @Test
+    public void testRetryAfterAtSlowRates() {
+        TokenBucket bucket = new TokenBucket();
+        assertEquals(0, bucket.acquire(0, 0.1, 1));
+        assertEquals(10, bucket.acquire(0, 0.1, 1));
+        assertEquals(5, bucket.acquire(5 * SECOND, 0.1, 1));
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.ajax.AbstractDefaultAjaxBehavior;
+import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.markup.html.form.Form;
+import org.apache.wicket.markup.repeater.RepeatingView;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.util.tester.FormTester;
+import org.apache.wicket.util.tester.WicketTester;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class Select2ChoiceTest {
+
+    private static final String MARKUP = "<html><head></head><body><form wicket:id=\"form\">"
+            + "<input type=\"hidden\" wicket:id=\"select\"/></form></body></html>";
+
+    private static final String SELECT_MARKUP = "<html><head></head><body>"
+            + "<input type=\"hidden\" wicket:id=\"select\"/></body></html>";
+
+    private static final String BATCH_MARKUP = "<html><head></head><body><form wicket:id=\"form\">"
+            + "<input type=\"hidden\" wicket:id=\"first\"/><input type=\"hidden\" wicket:id=\"second\"/>"
+            + "</form></body></html>";
+
+    private static final String SELECTION = "{\"id\":\"a\",\"text\":\"a\"}";
+
+    private static final String BATCH_LOOP = "for (var i = 0; i < s.length; i++)";
+
+    private WicketTester tester;
+
+    @Before
+    public void setUp() {
+        tester = new WicketTester();
+    }
+
+    @After
+    public void tearDown() {
+        tester.destroy();
+    }
+
+    @Test
+    public void testStreamedChoicesAreNotKept() throws Exception {
+        StreamingProvider.read.clear();
+        StreamingProvider provider = new StreamingProvider();
+
+        assertEquals("{\"results\":[{\"id\":\"x\",\"text\":\"x\"},{\"id\":\"y\",\"text\":\"y\"}],\"more\":true}",
+                query(provider, "a"));
+        assertEquals(Arrays.asList("unsupported"), StreamingProvider.read);
+        assertTrue(new CachingChoiceProvider<String>(provider, "strings").supportsStreaming());
+        assertFalse(new CachingChoiceProvider<String>(new Provider(), "strings").supportsStreaming());
+        assertTrue(new CoalescingChoiceProvider<String>(provider, "strings").supportsStreaming());
+        assertFalse(new CoalescingChoiceProvider<String>(new Provider(), "strings").supportsStreaming());
+    }
+
+    @Test
+    public void testTimedOutQueryIsCancelled() throws Exception {
+        ApplicationSettings.get().setQueryTimeoutMillis(50);
+        SlowProvider.caller = Thread.currentThread();
+        SlowProvider.stopped.clear();
+
+        assertEquals("{\"results\":[],\"more\":false}", query(new SlowProvider(), "a"));
+        assertEquals(Arrays.asList(Boolean.TRUE), SlowProvider.stopped);
+    }
+
+    @Test
+    public void testBatchedConversionMatchesChoicesById() throws Exception {
+        BatchingProvider provider = new BatchingProvider();
+        TestPage page = new TestPage(BATCH_MARKUP);
+        Form<Void> form = new Form<Void>("form");
+        page.add(form);
+        form.add(new Select2Choice<String>("first", Model.<String> of(), provider));
+        form.add(new Select2Choice<String>("second", Model.<String> of(), provider));
+        tester.startPage(page);
+
+        submit("a", "b");
+        assertEquals("a", tester.getComponentFromLastRenderedPage("form:first").getDefaultModelObject());
+        assertEquals("b", tester.getComponentFromLastRenderedPage("form:second").getDefaultModelObject());
+
+        submit("x", "b");
+        assertNull(tester.getComponentFromLastRenderedPage("form:first").getDefaultModelObject());
+        assertEquals("b", tester.getComponentFromLastRenderedPage("form:second").getDefaultModelObject());
+    }
+
+    @Test
+    public void testBatchedConversionSkipsComponentsWithoutProvider() throws Exception {
+        TestPage page = new TestPage(BATCH_MARKUP);
+        Form<Void> form = new Form<Void>("form");
+        page.add(form);
+        Select2Choice<String> select = new Select2Choice<String>("first", Model.<String> of(), new BatchingProvider());
+        form.add(select);
+        form.add(new Select2Choice<String>("second"));
+        Select2Choice<String> shared = new Select2Choice<String>("third");
+        shared.setSharedProvider("unregistered");
+        form.add(shared);
+
+        assertEquals(Arrays.asList("a"),
+                new ArrayList<String>(ChoiceBatch.toChoices(select, Arrays.asList("a"))));
+    }
+
+    @Test
+    public void testRendersCachedSelection() throws Exception {
+        ChoiceJsonCache cache = new ChoiceJsonCache();
+
+        tester.startPage(newPage(cache));
+        String markup = tester.getLastResponseAsString();
+        assertTrue(markup, markup.contains("select2('data', {\"id\":\"a\",\"text\":\"a\"})"));
+        assertEquals(1, cache.getMissCount());
+
+        tester.startPage(newPage(cache));
+        markup = tester.getLastResponseAsString();
+        assertTrue(markup, markup.contains("select2('data', {\"id\":\"a\",\"text\":\"a\"})"));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testProfileIsRenderedOncePerPageAndReused() throws Exception {
+        Settings profile = new Settings();
+        profile.setMinimumInputLength(2);
+        ApplicationSettings.get().registerSettingsProfile("compact", profile);
+
+        TestPage page = new TestPage(SELECT_MARKUP);
+        List<Select2Choice<String>> choices = addChoices(page, 3);
+        for (int i = 0; i < choices.size(); i++) {
+            choices.get(i).setSettingsProfile("compact");
+        }
+
+        tester.startPage(page);
+        String markup = tester.getLastResponseAsString();
+        Matcher definition = Pattern.compile("wicketSelect2Profiles\\[\"(compact-[0-9a-f]+)\"\\] = ").matcher(markup);
+        assertTrue(markup, definition.find());
+        String key = definition.group(1);
+        assertFalse(markup, definition.find());
+        assertEquals(3, count(markup, "wicketSelect2Profile(\"" + key + "\", "));
+        assertTrue(markup, markup.contains("\"minimumInputLength\":2"));
+
+        // the defaults are applied to a copy, the registered profile is shared by all pages
+        assertNull(profile.getFormatNoMatches());
+        assertNull(profile.getAjax());
+
+        tester.startPage(page);
+        markup = tester.getLastResponseAsString();
+        assertEquals(1, count(markup, "wicketSelect2Profiles[\"" + key + "\"] = "));
+        assertEquals(3, count(markup, "wicketSelect2Profile(\"" + key + "\", "));
+    }
+
+    @Test
+    public void testBatchedInitializationRendersOneScriptPerResponse() throws Exception {
+        ApplicationSettings.get().setBatchedInitialization(true);
+
+        TestPage page = new TestPage(SELECT_MARKUP);
+        List<Select2Choice<String>> choices = addChoices(page, 3);
+        UpdateBehavior update = new UpdateBehavior(choices.get(0), choices.get(2));
+        page.add(update);
+
+        tester.startPage(page);
+        String markup = tester.getLastResponseAsString();
+        assertEquals(1, count(markup, BATCH_LOOP));
+        assertEquals(3, count(markup, SELECTION));
+        for (int i = 0; i < choices.size(); i++) {
+            assertTrue(markup, markup.contains("[\"" + choices.get(i).getMarkupId() + "\","));
+        }
+
+        // an Ajax update gets its own script with only the updated components
+        tester.executeBehavior(update);
+        markup = tester.getLastResponseAsString();
+        assertEquals(1, count(markup, BATCH_LOOP));
+        assertEquals(2, count(markup, SELECTION));
+        assertTrue(markup, markup.contains("[\"" + choices.get(0).getMarkupId() + "\","));
+        assertFalse(markup, markup.contains("[\"" + choices.get(1).getMarkupId() + "\","));
+        assertTrue(markup, markup.contains("[\"" + choices.get(2).getMarkupId() + "\","));
+    }
+
+    @Test
+    public void testLazyInitializationRendersPlaceholderScript() throws Exception {
+        ApplicationSettings.get().setBatchedInitialization(true);
+
+        TestPage page = new TestPage(SELECT_MARKUP);
+        List<Select2Choice<String>> choices = addChoices(page, 2);
+        choices.get(0).setLazyInitialization(true);
+        String lazyId = choices.get(0).getMarkupId();
+
+        tester.startPage(page);
+        String markup = tester.getLastResponseAsString();
+
+        // the placeholder shows the selected text until Select2 is built
+        assertTrue(markup, markup.contains("$('<input type=\"text\" readonly=\"readonly\" class=\"select2-lazy\"/>')"));
+        assertTrue(markup, markup.contains(".attr('id', id + '_lazy')"));
+        assertTrue(markup, markup.contains("wicketSelect2Lazy(\"" + lazyId + "\", {"));
+        assertTrue(markup, markup.contains(", " + SELECTION + ");"));
+
+        // lazily initialized components are left out of the batched script
+        assertEquals(1, count(markup, BATCH_LOOP));
+        assertFalse(markup, markup.contains("[\"" + lazyId + "\","));
+        assertTrue(markup, markup.contains("[\"" + choices.get(1).getMarkupId() + "\","));
+    }
+
+    private void submit(String first, String second) {
+        FormTester form = tester.newFormTester("form");
+        form.setValue("first", first);
+        form.setValue("second", second);
+        form.submit();
+    }
+
+    private static List<Select2Choice<String>> addChoices(TestPage page, int count) {
+        RepeatingView view = new RepeatingView("select");
+        page.add(view);
+        List<Select2Choice<String>> choices = new ArrayList<Select2Choice<String>>();
+        for (int i = 0; i < count; i++) {
+            Select2Choice<String> choice = new Select2Choice<String>(view.newChildId(), Model.of("a"), new Provider());
+            view.add(choice);
+            choices.add(choice);
+        }
+        return choices;
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + part.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Queries a component using the provider through its request listener
+     */
+    private String query(ChoiceProvider<String> provider, String term) {
+        TestPage page = new TestPage(SELECT_MARKUP);
+        Select2Choice<String> select = new Select2Choice<String>("select", Model.<String> of(), provider);
+        page.add(select);
+        tester.startPage(page);
+        tester.getRequest().setParameter("term", term);
+        tester.executeListener(select);
+        return tester.getLastResponseAsString();
+    }
+
+    private static class Provider extends StringTextChoiceProvider {
+        @Override
+        public void query(String term, int page, Response<String> response) {
+        }
+    }
+
+    /**
+     * Converts ids in reverse order and does not know ids starting with {@code x}
+     */
+    private static class BatchingProvider extends Provider {
+        @Override
+        public Collection<String> toChoices(Collection<String> ids) {
+            LinkedList<String> choices = new LinkedList<String>();
+            for (String id : ids) {
+                if (!id.startsWith("x")) {
+                    choices.addFirst(id);
+                }
+            }
+            return choices;
+        }
+
+        @Override
+        public boolean supportsBatching() {
+            return true;
+        }
+    }
+
+    /**
+     * Waits on the request thread until the query is cancelled
+     */
+    private static class SlowProvider extends Provider {
+        static final List<Boolean> stopped = new ArrayList<Boolean>();
+        static Thread caller;
+
+        @Override
+        public void query(String term, int page, Response<String> response) {
+            assertSame(caller, Thread.currentThread());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!response.isCancelled() && System.currentTimeMillis() < deadline) {
+                Thread.yield();
+            }
+            stopped.add(response.isCancelled());
+            response.add(term);
+        }
+
+        @Override
+        public boolean supportsStreaming() {
+            return true;
+        }
+    }
+
+    /**
+     * Streams two choices and tries to read them back
+     */
+    private static class StreamingProvider extends Provider {
+        static final List<String> read = new ArrayList<String>();
+
+        @Override
+        public void query(String term, int page, Response<String> response) {
+            response.add("x").add("y");
+            try {
+                read.addAll(response.getResults());
+            } catch (UnsupportedOperationException e) {
+                read.add("unsupported");
+            }
+            response.setHasMore(response.size() == 2);
+        }
+
+        @Override
+        public boolean supportsStreaming() {
+            return true;
+        }
+    }
+
+    /**
+     * Re-renders components in an Ajax response
+     */
+    private static class UpdateBehavior extends AbstractDefaultAjaxBehavior {
+        private final Component[] components;
+
+        UpdateBehavior(Component... components) {
+            this.components = components;
+        }
+
+        @Override
+        protected void respond(AjaxRequestTarget target) {
+            target.add(components);
+        }
+    }
+
+    private static TestPage newPage(final ChoiceJsonCache cache) {
+        TestPage page = new TestPage(MARKUP);
+        Form<Void> form = new Form<Void>("form");
+        page.add(form);
+        form.add(new Select2Choice<String>("select", Model.of("a"), new StringTextChoiceProvider() {
+            @Override
+            public void query(String term, int page, Response<String> response) {
+            }
+
+            @Override
+            public ChoiceJsonCache getJsonCache() {
+                return cache;
+            }
+        }));
+        return page;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+public class Select2EventsTest {
+
+    private static final String QUERY = "com.vaynberg.wicket.select2.Query";
+
+    @Test
+    public void testNoEventWithoutRecording() {
+        assertNull(Select2Events.beginQuery());
+    }
+
+    @Test
+    public void testRecordsQuery() throws Exception {
+        File file = File.createTempFile("select2", ".jfr");
+        try {
+            Recording recording = new Recording();
+            recording.enable(QUERY);
+            recording.start();
+            Object event = Select2Events.beginQuery();
+            assertNotNull(event);
+            Select2Events.endQuery(event, null, "countries", "fra", 2, 10, 512);
+            recording.stop();
+            recording.dump(file.toPath());
+            recording.close();
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+            RecordedEvent recorded = null;
+            for (RecordedEvent candidate : events) {
+                if (QUERY.equals(candidate.getEventType().getName())) {
+                    recorded = candidate;
+                }
+            }
+            assertNotNull(recorded);
+            assertEquals("countries", recorded.getString("provider"));
+            assertEquals(3, recorded.getInt("termLength"));
+            assertEquals(2, recorded.getInt("page"));
+            assertEquals(10, recorded.getInt("results"));
+            assertEquals(512L, recorded.getLong("bytes"));
+        } finally {
+            file.delete();
+        }
+    }
+}
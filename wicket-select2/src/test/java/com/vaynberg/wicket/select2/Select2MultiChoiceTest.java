@@ -2,6 +2,7 @@ package com.vaynberg.wicket.select2;
 
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -55,4 +56,17 @@ public class Select2MultiChoiceTest {
                 "\"isContact\":true},{\"email\":{\"emailAddress\":\"otheruser@test.com\"},\"isContact\":contact}");
         assertEquals(2, strings.size());
     }
+
+    @Test
+    public void testSplitDropsTrailingEmptyIds() throws Exception {
+        assertEquals(Arrays.asList("A", "", "B"), Select2MultiChoice.splitInput("A,,B,,"));
+    }
+
+    @Test
+    public void testSplitWithJsonIdsContainingBracesAndCommasInStrings() throws Exception {
+        String first = "{\"name\":\"a}b,{c\"}";
+        String second = "{\"name\":\"say \\\"}\\\" twice\",\"n\":{\"x\":1}}";
+        List<String> strings = Select2MultiChoice.splitInput(first + "," + second);
+        assertEquals(Arrays.asList(first, second), strings);
+    }
 }
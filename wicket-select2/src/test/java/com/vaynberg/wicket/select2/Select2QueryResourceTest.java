@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.authorization.Action;
+import org.apache.wicket.authorization.IAuthorizationStrategy;
+import org.apache.wicket.mock.MockWebRequest;
+import org.apache.wicket.mock.MockWebResponse;
+import org.apache.wicket.request.Url;
+import org.apache.wicket.request.component.IRequestableComponent;
+import org.apache.wicket.request.mapper.parameter.PageParameters;
+import org.apache.wicket.request.resource.IResource;
+import org.apache.wicket.util.tester.WicketTester;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class Select2QueryResourceTest {
+
+    private WicketTester tester;
+
+    @Before
+    public void setUp() {
+        tester = new WicketTester();
+        StringTextChoiceProvider provider = new StringTextChoiceProvider() {
+            @Override
+            public void query(String term, int page, Response<String> response) {
+                response.add(term);
+            }
+        };
+        ApplicationSettings.get().registerProvider("public", provider).registerProvider("secret", provider);
+        tester.getApplication().getSecuritySettings().setAuthorizationStrategy(new IAuthorizationStrategy() {
+            @Override
+            public <T extends IRequestableComponent> boolean isInstantiationAuthorized(Class<T> componentClass) {
+                return true;
+            }
+
+            @Override
+            public boolean isActionAuthorized(Component component, Action action) {
+                return true;
+            }
+
+            @Override
+            public boolean isResourceAuthorized(IResource resource, PageParameters parameters) {
+                return !"secret".equals(parameters.get(Select2QueryResource.PROVIDER_PARAMETER).toOptionalString());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        tester.destroy();
+    }
+
+    @Test
+    public void testAuthorizedQueryIsAnswered() throws Exception {
+        MockWebResponse response = query("public");
+        assertTrue(new String(response.getBinaryResponse(), "UTF-8").contains("\"a\""));
+    }
+
+    @Test
+    public void testUnauthorizedQueryIsForbidden() throws Exception {
+        assertEquals(Integer.valueOf(403), query("secret").getStatus());
+    }
+
+    @Test
+    public void testUnknownProviderIsForbiddenBeforeLookup() throws Exception {
+        ApplicationSettings.get().setQueryResource(new Select2QueryResource() {
+            @Override
+            protected boolean isQueryAllowed(String name, Attributes attributes) {
+                return false;
+            }
+        });
+        assertEquals(Integer.valueOf(403), query("missing").getStatus());
+    }
+
+    private MockWebResponse query(String provider) {
+        MockWebRequest request = new MockWebRequest(Url.parse("http://localhost/?term=a&provider=" + provider));
+        MockWebResponse response = new MockWebResponse();
+        ApplicationSettings.get().getQueryResource().respond(new IResource.Attributes(request, response));
+        return response;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.markup.repeater.RepeatingView;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.util.tester.WicketTester;
+import org.junit.Test;
+
+public class SettingsSerializationTest {
+
+    private static final int COMPONENTS = 300;
+
+    /** upper bound of the serialized size of a component with its model, provider and settings */
+    private static final int MAX_BYTES_PER_COMPONENT = 400;
+
+    private static final String MARKUP = "<html><head></head><body>"
+            + "<input type=\"hidden\" wicket:id=\"select\"/></body></html>";
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Settings settings = createSettings(7);
+        settings.setMinimumInputLength(2);
+        settings.setTokenSeparators(new String[] {",", " "});
+        settings.getAjax().setQuietMillis(250);
+
+        Settings copy = (Settings) deserialize(serialize(settings));
+
+        assertEquals(settings.toJson().toString(), copy.toJson().toString());
+        assertEquals(250, copy.getAjax().getQuietMillis());
+        assertEquals("json", copy.getAjax().getDataType());
+    }
+
+    @Test
+    public void testCachedJsonIsRebuiltAfterDeserialization() throws Exception {
+        Settings settings = createSettings(7);
+        settings.getAjax().setQuietMillis(100);
+        String json = settings.toJson().toString();
+
+        Settings copy = (Settings) deserialize(serialize(settings));
+        assertEquals(json, copy.toJson().toString());
+
+        // the modification count of the ajax settings starts over, changes must still be picked up
+        copy.getAjax().setQuietMillis(250);
+        String changed = copy.toJson().toString();
+        assertEquals(json.replace("\"quietMillis\":100", "\"quietMillis\":250"), changed);
+
+        copy.getAjax().setUrl("./other");
+        assertTrue(copy.toJson().toString().contains("\"url\":\"./other\""));
+    }
+
+    @Test
+    public void testPageOfSettingsIsCompact() throws Exception {
+        WicketTester tester = new WicketTester();
+        try {
+            TestPage page = new TestPage(MARKUP);
+            RepeatingView choices = new RepeatingView("select");
+            page.add(choices);
+            for (int i = 0; i < COMPONENTS; i++) {
+                choices.add(new Select2Choice<String>(choices.newChildId(), Model.of("a"), new Provider()));
+            }
+            tester.startPage(page);
+
+            // the settings as the components hold them, and as copies with the field layout they used to be written
+            List<Settings> after = new ArrayList<Settings>();
+            List<LegacySettings> before = new ArrayList<LegacySettings>();
+            for (Component choice : choices) {
+                Settings settings = ((Select2Choice<?>) choice).getSettings();
+                after.add(settings);
+                before.add(LegacySettings.copy(settings));
+            }
+            int beforeSize = serialize((Serializable) before).length;
+            int afterSize = serialize((Serializable) after).length;
+
+            // the localized functions are written once per page, only the urls remain per component
+            assertTrue("before: " + beforeSize + " bytes, after: " + afterSize + " bytes", afterSize * 3 < beforeSize);
+
+            // whole components, settings included, not just the settings on their own
+            int pageSize = serialize(page).length;
+            assertTrue("page: " + pageSize + " bytes", pageSize < COMPONENTS * MAX_BYTES_PER_COMPONENT);
+
+            @SuppressWarnings("unchecked")
+            List<Settings> copy = (List<Settings>) deserialize(serialize((Serializable) after));
+            assertSame(copy.get(0).getFormatNoMatches(), copy.get(COMPONENTS - 1).getFormatNoMatches());
+        } finally {
+            tester.destroy();
+        }
+    }
+
+    @Test
+    public void testSharedStringsAreScopedToTheApplication() throws Exception {
+        String first;
+        WicketTester tester = new WicketTester();
+        try {
+            first = Settings.intern(new String("function() { return 'shared';}"));
+            assertSame(first, Settings.intern(new String("function() { return 'shared';}")));
+        } finally {
+            tester.destroy();
+        }
+
+        tester = new WicketTester();
+        try {
+            assertNotSame(first, Settings.intern(new String("function() { return 'shared';}")));
+        } finally {
+            tester.destroy();
+        }
+    }
+
+    /**
+     * Creates settings like those of a component after initialization, with strings built anew for each component
+     */
+    private static Settings createSettings(int component) {
+        Settings settings = new Settings();
+        AjaxSettings ajax = settings.getAjax(true);
+        ajax.setUrl("./page?" + component + "-1.IBehaviorListener.0-form-select" + component);
+        ajax.setData(String.format("function(term, page, context) { return { term: term, page:page, "
+                + "cursor:context, '%s':true, '%s':[window.location.protocol, '//', window.location.host, "
+                + "window.location.pathname].join('')}; }", "wicket-ajax", "wicket-ajax-baseurl"));
+        ajax.setResults(new StringBuilder("function(data, page) { return data; }").toString());
+        // not constants, so the functions are concatenated at runtime like the localized ones
+        String noMatches = "No matches found";
+        String singular = "Please enter 1 more character";
+        String plural = "Please enter {number} more characters";
+        String loadMore = "Loading more results...";
+        String searching = "Searching...";
+        settings.setFormatNoMatches("function() { return '" + noMatches + "';}");
+        settings.setFormatInputTooShort("function(input, min) { return min - input.length == 1 ? '" + singular
+                + "' : '" + plural + "'.replace('{number}', min - input.length); }");
+        settings.setFormatLoadMore("function() { return '" + loadMore + "';}");
+        settings.setFormatSearching("function() { return '" + searching + "';}");
+        return settings;
+    }
+
+    private static class Provider extends StringTextChoiceProvider {
+        @Override
+        public void query(String term, int page, Response<String> response) {
+        }
+    }
+
+    /**
+     * Settings with the fields they had when they were written by default serialization
+     */
+    private static class LegacySettings implements Serializable {
+        private Integer minimumInputLength, minimumResultsForSearch;
+        private Integer maximumSelectionSize;
+        private Object placeholder;
+        private Boolean allowClear;
+        private Boolean multiple;
+        private Boolean closeOnSelect;
+        private String id, matcher, tokenizer;
+        private String sortResults;
+        private String formatSelection, formatSelectionTooBig, formatResult, formatNoMatches, formatInputTooShort,
+                formatResultCssClass, formatLoadMore, formatSearching, escapeMarkup;
+        private String createSearchChoice;
+        private String initSelection;
+        private String query;
+        private String width;
+        private Boolean openOnEnter;
+        private String containerCss, dropdownCss, containerCssClass, dropdownCssClass;
+        private LegacyAjaxSettings ajax;
+        private String data;
+        private String tags;
+        private String separator;
+        private String[] tokenSeparators;
+        private Boolean dropdownAutoWidth;
+
+        static LegacySettings copy(Settings settings) throws Exception {
+            LegacySettings legacy = copyFields(settings, new LegacySettings());
+            legacy.ajax = settings.getAjax() == null ? null : copyFields(settings.getAjax(), new LegacyAjaxSettings());
+            return legacy;
+        }
+    }
+
+    private static class LegacyAjaxSettings implements Serializable {
+        private CharSequence url;
+        private String dataType;
+        private int quietMillis;
+        private String data;
+        private String results;
+        private Boolean traditional;
+    }
+
+    /**
+     * Copies the values of the instance fields that the target declares, leaving out the ajax settings
+     */
+    private static <T> T copyFields(Object source, T target) throws Exception {
+        for (Field field : target.getClass().getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.getName().equals("ajax")) {
+                continue;
+            }
+            Field original = source.getClass().getDeclaredField(field.getName());
+            original.setAccessible(true);
+            field.setAccessible(true);
+            field.set(target, original.get(source));
+        }
+        return target;
+    }
+
+    private static byte[] serialize(Serializable object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws Exception {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SettingsTest {
+
+    @Test
+    public void testSetterInvalidatesCachedJson() throws Exception {
+        Settings settings = new Settings();
+        settings.setMinimumInputLength(1);
+        assertTrue(settings.toJson().toString().contains("\"minimumInputLength\":1"));
+
+        settings.setMinimumInputLength(3);
+        String json = settings.toJson().toString();
+        assertTrue(json, json.contains("\"minimumInputLength\":3"));
+        assertFalse(json, json.contains("\"minimumInputLength\":1"));
+    }
+
+    @Test
+    public void testUrlIsWrittenIntoCachedJson() throws Exception {
+        Settings settings = new Settings();
+        settings.setMinimumInputLength(1);
+        AjaxSettings ajax = settings.getAjax(true);
+        ajax.setUrl("./page?1-1.IBehaviorListener.0-select");
+        String first = settings.toJson().toString();
+        assertTrue(first, first.contains("\"url\":\"./page?1-1.IBehaviorListener.0-select\""));
+
+        // only the url differs, the Json around it comes from the cached template
+        ajax.setUrl("./page?2-1.IBehaviorListener.0-select");
+        String second = settings.toJson().toString();
+        assertEquals(first.replace("?1-1", "?2-1"), second);
+
+        // without a url the template is not split around it
+        ajax.setUrl(null);
+        assertFalse(settings.toJson().toString().contains("IBehaviorListener"));
+    }
+
+    @Test
+    public void testAjaxSetterInvalidatesCachedJson() throws Exception {
+        Settings settings = new Settings();
+        AjaxSettings ajax = settings.getAjax(true);
+        ajax.setUrl("./page");
+        ajax.setQuietMillis(100);
+        assertTrue(settings.toJson().toString().contains("\"quietMillis\":100"));
+
+        ajax.setQuietMillis(250);
+        String json = settings.toJson().toString();
+        assertTrue(json, json.contains("\"quietMillis\":250"));
+        assertTrue(json, json.contains("\"url\":\"./page\""));
+    }
+}
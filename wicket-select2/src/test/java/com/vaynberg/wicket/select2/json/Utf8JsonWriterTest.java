@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 Igor Vaynberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this work except in compliance with
+ * the License. You may obtain a copy of the License in the LICENSE file, or at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.vaynberg.wicket.select2.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+public class Utf8JsonWriterTest {
+
+    @Test
+    public void testWritesNestedStructures() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Utf8JsonWriter json = new Utf8JsonWriter(bytes);
+        json.object().key("results").array();
+        json.object().key("id").value(1).key("text").value("One").endObject();
+        json.object().key("id").value(-20L).key("text").value((Object) null).key("ok").value(true).endObject();
+        json.endArray().key("more").value(false).endObject();
+        json.flush();
+
+        assertEquals("{\"results\":[{\"id\":1,\"text\":\"One\"},{\"id\":-20,\"text\":null,\"ok\":true}],\"more\":false}",
+                bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void testEscapesAndEncodesStrings() throws Exception {
+        String text = "q\"b\\s\n</x> caf\u00e9 \u20ac \ud83d\ude00 \u0085";
+
+        // a tiny buffer makes the writer drain in the middle of strings
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Utf8JsonWriter json = new Utf8JsonWriter(bytes, 16);
+        json.array().value(text).value(text).endArray();
+        json.flush();
+
+        String quoted = "\"q\\\"b\\\\s\\n<\\/x> caf\u00e9 \\u20ac \ud83d\ude00 \\u0085\"";
+        assertEquals("[" + quoted + "," + quoted + "]", bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void testFormatsOtherValuesLikeJSONObject() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Utf8JsonWriter json = new Utf8JsonWriter(bytes);
+        json.array().value(1.5d).value(new JsonFunction("function() {}")).endArray();
+        json.flush();
+
+        assertEquals("[1.5,function() {}]", bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void testRejectsTopLevelValues() throws Exception {
+        Utf8JsonWriter json = new Utf8JsonWriter(new ByteArrayOutputStream());
+        try {
+            json.value("top");
+            fail();
+        } catch (JSONException e) {
+            // expected, as with JSONWriter
+        }
+    }
+
+    @Test
+    public void testRejectsMisplacedCalls() throws Exception {
+        Utf8JsonWriter json = new Utf8JsonWriter(new ByteArrayOutputStream());
+        json.object();
+        try {
+            json.value("no key");
+            fail();
+        } catch (JSONException e) {
+            // expected
+        }
+        try {
+            json.endArray();
+            fail();
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReusesCallerBuffer() throws Exception {
+        byte[] buffer = new byte[16];
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        Utf8JsonWriter json = new Utf8JsonWriter(first, buffer);
+        json.array().value("a long enough value to drain").endArray();
+        json.flush();
+
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        json = new Utf8JsonWriter(second, buffer);
+        json.array().value("b").endArray();
+        json.flush();
+
+        assertEquals("[\"a long enough value to drain\"]", first.toString("UTF-8"));
+        assertEquals("[\"b\"]", second.toString("UTF-8"));
+    }
+
+    @Test
+    public void testSubclassesCanUseInheritedFields() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CommentingWriter json = new CommentingWriter(bytes);
+        json.object().key("id");
+        assertEquals('k', json.mode());
+        json.comment("caf\u00e9");
+        json.value(1).endObject();
+        assertEquals('d', json.mode());
+        json.flush();
+
+        assertEquals("{\"id\":/*caf\u00e9*/1}", bytes.toString("UTF-8"));
+    }
+
+    /**
+     * Writes comments through the inherited {@code writer}
+     */
+    private static class CommentingWriter extends Utf8JsonWriter {
+        CommentingWriter(ByteArrayOutputStream out) {
+            super(out);
+        }
+
+        void comment(String text) throws IOException {
+            writer.append("/*").append(text).append("*/");
+        }
+
+        char mode() {
+            return mode;
+        }
+    }
+}